@@ -1,12 +1,25 @@
 package chatbot.chatbot.config;
 
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import jakarta.annotation.PostConstruct;
+
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import chatbot.chatbot.utils.FileUtils;
 import dev.langchain4j.model.embedding.DimensionAwareEmbeddingModel;
+import dev.langchain4j.model.ollama.OllamaChatRequestParameters;
 import dev.langchain4j.model.ollama.OllamaEmbeddingModel;
 import dev.langchain4j.model.ollama.OllamaStreamingChatModel;
+import dev.langchain4j.store.embedding.pgvector.DefaultMetadataStorageConfig;
+import dev.langchain4j.store.embedding.pgvector.MetadataStorageMode;
 import dev.langchain4j.store.embedding.pgvector.PgVectorEmbeddingStore;
 
 @Configuration
@@ -21,6 +34,12 @@ public class AiConfiguration {
     @Value("${app.ai.embedding-model-name}")
     private String embeddingModelName;
 
+    @Value("${app.ai.keep-alive-seconds}")
+    private int keepAliveSeconds;
+
+    @Value("${app.ai.num-ctx}")
+    private int numCtx;
+
     @Value("${app.database.host}")
     private String dbHost;
     
@@ -36,20 +55,68 @@ public class AiConfiguration {
     @Value("${app.database.password}")
     private String dbPassword;
     
+    @Value("${app.database.pool.maximum-pool-size}")
+    private int poolMaximumSize;
+
+    @Value("${app.database.pool.minimum-idle}")
+    private int poolMinimumIdle;
+
+    @Value("${app.database.pool.connection-timeout-ms}")
+    private long poolConnectionTimeoutMs;
+
+    @Value("${app.database.pool.idle-timeout-ms}")
+    private long poolIdleTimeoutMs;
+
+    @Value("${app.database.pool.max-lifetime-ms}")
+    private long poolMaxLifetimeMs;
+
+    @Value("${app.database.pool.prepare-threshold}")
+    private int prepareThreshold;
+
+    @Value("${app.database.pool.prepared-statement-cache-queries}")
+    private int preparedStatementCacheQueries;
+
+    @Value("${app.database.pool.prepared-statement-cache-size-mib}")
+    private int preparedStatementCacheSizeMiB;
+
     @Value("${app.database.table}")
     private String tableName;
     
-    @Value("${app.vectorstore.min-score}")
-    private double minScore;
-    
     @Value("${app.vectorstore.raw-data-dir}")
     private String rawDataDir;
 
+    @Value("${app.vectorstore.search.hnsw-ef-search}")
+    private int hnswEfSearch;
+
+    @Value("${app.vectorstore.search.ivfflat-probes}")
+    private int ivfflatProbes;
+
+    @Value("${app.vectorstore.search.iterative-scan}")
+    private String iterativeScan;
+
+    @Value("${app.vectorstore.search.hnsw-max-scan-tuples}")
+    private int hnswMaxScanTuples;
+
+    @Value("${app.vectorstore.search.ivfflat-max-probes}")
+    private int ivfflatMaxProbes;
+
+    @PostConstruct
+    public void configureRawDataDirectory() {
+        FileUtils.setRawDataDirectory(rawDataDir);
+        FileUtils.deleteStaleUploads();
+    }
+
     @Bean
     public OllamaStreamingChatModel chatModel() {
+        // keep_alive keeps the model and its cached prompt prefix loaded between requests;
+        // a fixed num_ctx avoids reloading the model when the context size would change
         return OllamaStreamingChatModel.builder()
             .baseUrl(serverUrl)
             .modelName(chatModelName)
+            .defaultRequestParameters(OllamaChatRequestParameters.builder()
+                .keepAlive(keepAliveSeconds)
+                .build())
+            .numCtx(numCtx)
             .build();
     }
 
@@ -61,17 +128,54 @@ public class AiConfiguration {
             .build();
     }
 
+    /**
+     * Pooled DataSource shared by the embedding store, the bulk loader and the index management.
+     * The ANN search parameters are sent as connection startup options so every
+     * query runs with them without an extra SET round trip. Iterative index scans
+     * keep filtered searches (tenant scope, minimum score) from returning fewer results
+     * than requested, bounded by max_scan_tuples / max_probes so a question without
+     * good matches does not turn into a full scan.
+     */
+    @Bean(destroyMethod = "close")
+    public HikariDataSource vectorDataSource() {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("pgvector-pool");
+        config.setJdbcUrl("jdbc:postgresql://" + dbHost + ":" + dbPort + "/" + dbName);
+        config.setUsername(dbUser);
+        config.setPassword(dbPassword);
+        config.setMaximumPoolSize(poolMaximumSize);
+        config.setMinimumIdle(poolMinimumIdle);
+        config.setConnectionTimeout(poolConnectionTimeoutMs);
+        config.setIdleTimeout(poolIdleTimeoutMs);
+        config.setMaxLifetime(poolMaxLifetimeMs);
+
+        // Server-side prepared statement caching in the PostgreSQL driver. Only statements with a fixed
+        // text benefit (inserts, deletes, repository queries): PgVectorEmbeddingStore.search inlines
+        // the query vector into its SQL, so each search is a new, single-use cache entry
+        config.addDataSourceProperty("prepareThreshold", prepareThreshold);
+        config.addDataSourceProperty("preparedStatementCacheQueries", preparedStatementCacheQueries);
+        config.addDataSourceProperty("preparedStatementCacheSizeMiB", preparedStatementCacheSizeMiB);
+        config.addDataSourceProperty("options", "-c hnsw.ef_search=" + hnswEfSearch
+            + " -c ivfflat.probes=" + ivfflatProbes
+            + " -c hnsw.iterative_scan=" + iterativeScan
+            + " -c hnsw.max_scan_tuples=" + hnswMaxScanTuples
+            // IVFFlat only supports relaxed ordering; VectorStoreService re-sorts the results by score
+            + " -c ivfflat.iterative_scan=" + ("off".equals(iterativeScan) ? "off" : "relaxed_order")
+            + " -c ivfflat.max_probes=" + ivfflatMaxProbes);
+        return new HikariDataSource(config);
+    }
+
     @Bean
-    public PgVectorEmbeddingStore embeddingStore(DimensionAwareEmbeddingModel embeddingModel) {
-        return PgVectorEmbeddingStore.builder()
-            .host(dbHost)
-            .port(dbPort)
-            .user(dbUser)
-            .password(dbPassword)
-            .database(dbName)
+    public PgVectorEmbeddingStore embeddingStore(DataSource vectorDataSource, DimensionAwareEmbeddingModel embeddingModel) {
+        return PgVectorEmbeddingStore.datasourceBuilder()
+            .datasource(vectorDataSource)
             .createTable(false)
             .table(tableName)
             .dimension(embeddingModel.dimension())
+            .metadataStorageConfig(DefaultMetadataStorageConfig.builder()
+                .storageMode(MetadataStorageMode.COMBINED_JSONB)
+                .columnDefinitions(List.of("metadata JSONB NULL"))
+                .build())
             .build();
     }
-}
\ No newline at end of file
+}
@@ -1,12 +1,15 @@
 package chatbot.chatbot.controller;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -17,9 +20,13 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
 
 import chatbot.chatbot.handler.StreamChatHandler;
 import chatbot.chatbot.service.AiService;
+import chatbot.chatbot.service.DeduplicationService;
+import chatbot.chatbot.service.IngestionStatusService;
+import chatbot.chatbot.service.VectorIndexService;
 import chatbot.chatbot.service.VectorStoreService;
 import chatbot.chatbot.utils.FileUtils;
 import reactor.core.publisher.Flux;
@@ -29,15 +36,32 @@ import reactor.core.publisher.FluxSink;
 @RequestMapping(value = "/api")
 public class ChatController {
 
+    private static final String COLLECTION_WITHOUT_TENANT = "A collection can only be given together with a tenant";
+
     // Store active conversations using a UUID as the key and message as the value.
     private Map<String, String> conversations = new HashMap<>();
     
     private final AiService aiService;
     private final VectorStoreService vectorStoreService;
+    private final VectorIndexService vectorIndexService;
+    private final IngestionStatusService ingestionStatusService;
+    private final DeduplicationService deduplicationService;
+
+    // Index uploaded files while they are received instead of waiting for /createIndex
+    @Value("${app.vectorstore.ingest.index-on-upload}")
+    private boolean indexOnUpload;
+
+    // Number of context segments retrieved for each question
+    @Value("${app.vectorstore.max-results}")
+    private int maxResults;
 
-    public ChatController(AiService aiService, VectorStoreService vectorStoreService) {
+    public ChatController(AiService aiService, VectorStoreService vectorStoreService, VectorIndexService vectorIndexService,
+            IngestionStatusService ingestionStatusService, DeduplicationService deduplicationService) {
         this.aiService = aiService;
         this.vectorStoreService = vectorStoreService;
+        this.vectorIndexService = vectorIndexService;
+        this.ingestionStatusService = ingestionStatusService;
+        this.deduplicationService = deduplicationService;
     }
 
     
@@ -63,7 +87,14 @@ public class ChatController {
      * This endpoint allows the frontend to stream the partial responses.
      */
     @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<String> streamChat(@RequestParam String conversationId) {
+    public Flux<String> streamChat(
+            @RequestParam String conversationId,
+            @RequestParam(required = false) String tenant,
+            @RequestParam(required = false) String collection) {
+
+        if (isCollectionWithoutTenant(tenant, collection)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, COLLECTION_WITHOUT_TENANT);
+        }
 
         // Create a Flux that will push data to the client over SSE
         return Flux.create((FluxSink<String> sink) -> {
@@ -73,7 +104,8 @@ public class ChatController {
 
             
             // Search the vector store with the user message
-            List<String> relevantContexts = vectorStoreService.search(message, 3);
+            List<String> relevantContexts = vectorStoreService.search(
+                message, maxResults, VectorStoreService.searchFilter(tenant, collection));
 
             // Log the relevant contexts found
             //System.out.println("Relevant contexts found: " + relevantContexts.size());
@@ -95,15 +127,27 @@ public class ChatController {
 
     /**
      * Handles file upload for vector store documents.
-     * Accepts multiple files and stores them in the raw_data folder.
+     * Accepts multiple files and stores them in the raw_data folder,
+     * under raw_data/{tenant}/{collection} when a tenant is given.
+     * With index=true the file is also indexed while it is being saved.
      */
     @PostMapping("/upload")
     public ResponseEntity<Map<String, Object>> uploadFiles(
-            @RequestParam("file") MultipartFile file) {
+            @RequestParam("file") MultipartFile file,
+            @RequestParam(required = false) String tenant,
+            @RequestParam(required = false) String collection,
+            @RequestParam(required = false) Boolean index) {
         
         Map<String, Object> response = new HashMap<>();
         List<String> errors = new ArrayList<>();
 
+        // Validate tenant and collection names
+        if (!FileUtils.isValidScopeName(tenant) || !FileUtils.isValidScopeName(collection)) {
+            response.put("success", false);
+            response.put("errors", List.of("Tenant and collection may only contain letters, digits, '_' and '-'"));
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
+        }
+
         // Create raw_data directory if it doesn't exist
         try {
             FileUtils.createRawDataDirectoryIfNotExists();
@@ -121,8 +165,13 @@ public class ChatController {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
         }
 
+        // Save and index the file in a single pass
+        if (index != null ? index : indexOnUpload) {
+            return uploadAndIndex(file, tenant, collection);
+        }
+
         // Save file
-        if (!FileUtils.saveMultipartFile(file, errors)) {
+        if (!FileUtils.saveMultipartFile(file, tenant, collection, errors)) {
             response.put("success", false);
             response.put("errors", errors);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
@@ -133,6 +182,65 @@ public class ChatController {
         return ResponseEntity.status(HttpStatus.OK).body(response);
     }
 
+    /**
+     * Streams an uploaded file into raw_data and the vector store at the same time
+     */
+    private ResponseEntity<Map<String, Object>> uploadAndIndex(MultipartFile file, String tenant, String collection) {
+        Map<String, Object> response = new HashMap<>();
+
+        try (InputStream input = file.getInputStream()) {
+            Path target = FileUtils.resolveUploadTarget(file, tenant, collection);
+            int segments = vectorStoreService.ingestStream(input, target,
+                FileUtils.getTenant(target), FileUtils.getCollection(target));
+
+            response.put("success", true);
+            response.put("fileName", FileUtils.getRelativeName(target));
+            response.put("segments", segments);
+            return ResponseEntity.status(HttpStatus.OK).body(response);
+
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("errors", List.of("Failed to upload and index file: " + e.getMessage()));
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+
+    /**
+     * Gets the ingestion status of a file, or of all files when no name is given
+     */
+    @GetMapping("/ingestStatus")
+    public ResponseEntity<Map<String, Object>> getIngestStatus(@RequestParam(required = false) String fileName) {
+        Map<String, Object> response = new HashMap<>();
+
+        if (fileName == null || fileName.isBlank()) {
+            response.put("success", true);
+            response.put("statuses", ingestionStatusService.getAll());
+            return ResponseEntity.ok(response);
+        }
+
+        IngestionStatusService.IngestionStatus status = ingestionStatusService.get(fileName);
+        if (status == null) {
+            response.put("success", false);
+            response.put("message", "No ingestion status for " + fileName);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+        }
+
+        response.put("success", true);
+        response.put("status", status);
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Reports the near-duplicate segments skipped during ingestion and the resources saved
+     */
+    @GetMapping("/dedupStats")
+    public ResponseEntity<Map<String, Object>> getDedupStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("stats", deduplicationService.getStats());
+        return ResponseEntity.ok(response);
+    }
+
     /**
      * Gets list of uploaded files in the raw_data directory
      */
@@ -166,6 +274,7 @@ public class ChatController {
             response.put("errors", errors);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
         }
+        ingestionStatusService.remove(fileName);
 
         // Prepare response
         response.put("success", true);
@@ -200,15 +309,24 @@ public class ChatController {
     }
 
     /**
-     * Resets/deletes the vector store index
+     * Resets/deletes the vector store index, or only the entries of a tenant/collection
      */
     @PostMapping("/resetIndex")
-    public ResponseEntity<Map<String, Object>> resetIndex() {
+    public ResponseEntity<Map<String, Object>> resetIndex(
+            @RequestParam(required = false) String tenant,
+            @RequestParam(required = false) String collection) {
         Map<String, Object> response = new HashMap<>();
+
+        // Without a tenant the whole index would be reset, not only the collection
+        if (isCollectionWithoutTenant(tenant, collection)) {
+            response.put("success", false);
+            response.put("error", COLLECTION_WITHOUT_TENANT);
+            return ResponseEntity.badRequest().body(response);
+        }
         
         try {
             // Reset the vector store index
-            if (!vectorStoreService.resetIndex()) {
+            if (!vectorStoreService.resetIndex(tenant, collection)) {
                 response.put("success", false);
                 response.put("error", "Failed to reset vector store index");
                 return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
@@ -225,4 +343,48 @@ public class ChatController {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
         }
     }
+
+    /**
+     * Rebuilds the ANN index from the current rows, e.g. an IVFFlat index after loading documents
+     */
+    @PostMapping("/rebuildIndex")
+    public ResponseEntity<Map<String, Object>> rebuildIndex() {
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            response.put("success", true);
+            response.put("action", vectorIndexService.rebuildIndex());
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("error", "Exception occurred: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+
+    /**
+     * Reports recall@k and latency of the ANN index compared to an exact search
+     */
+    @GetMapping("/indexReport")
+    public ResponseEntity<Map<String, Object>> indexReport(
+            @RequestParam(defaultValue = "50") int samples,
+            @RequestParam(defaultValue = "3") int k) {
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            response.put("success", true);
+            response.put("report", vectorIndexService.recallReport(samples, k));
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("error", "Exception occurred: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+
+    private static boolean isCollectionWithoutTenant(String tenant, String collection) {
+        return (tenant == null || tenant.isBlank()) && collection != null && !collection.isBlank();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,31 @@
+package chatbot.chatbot.health;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import chatbot.chatbot.service.WarmupService;
+
+/**
+ * Reports the warm-up as the "warmup" health component. It is part of the readiness group,
+ * so /actuator/health/readiness is only UP once the models and the store are warm.
+ */
+@Component
+public class WarmupHealthIndicator implements HealthIndicator {
+
+    private final WarmupService warmupService;
+
+    public WarmupHealthIndicator(WarmupService warmupService) {
+        this.warmupService = warmupService;
+    }
+
+    @Override
+    public Health health() {
+        Health.Builder builder = switch (warmupService.getState()) {
+            case READY -> Health.up();
+            case FAILED -> Health.down();
+            case PENDING, WARMING_UP -> Health.outOfService();
+        };
+        return builder.withDetails(warmupService.getStatus()).build();
+    }
+}
@@ -0,0 +1,116 @@
+package chatbot.chatbot.prompttemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A prompt template parsed once into literal parts and {{variable}} slots.
+ * Rendering fills the slots in a single pass into one pre-sized builder, so values
+ * are never rescanned for placeholders.
+ */
+public final class CompiledPromptTemplate {
+
+    private static final String OPEN = "{{";
+    private static final String CLOSE = "}}";
+
+    // Separator between the items of a list value, e.g. retrieved documents
+    private static final String LIST_SEPARATOR = "\n\n";
+
+    // literals[i] precedes variables[i]; the last literal follows the last variable
+    private final String[] literals;
+    private final String[] variables;
+    private final int literalLength;
+
+    private CompiledPromptTemplate(String[] literals, String[] variables) {
+        this.literals = literals;
+        this.variables = variables;
+
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Parse a template with {{variable}} placeholders
+     */
+    public static CompiledPromptTemplate compile(String template) {
+        List<String> literals = new ArrayList<>();
+        List<String> variables = new ArrayList<>();
+
+        int position = 0;
+        while (true) {
+            int open = template.indexOf(OPEN, position);
+            if (open < 0) {
+                break;
+            }
+            int close = template.indexOf(CLOSE, open + OPEN.length());
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed placeholder at index " + open);
+            }
+            literals.add(template.substring(position, open));
+            variables.add(template.substring(open + OPEN.length(), close).trim());
+            position = close + CLOSE.length();
+        }
+        literals.add(template.substring(position));
+
+        return new CompiledPromptTemplate(literals.toArray(String[]::new), variables.toArray(String[]::new));
+    }
+
+    /**
+     * Render the template. A value may be a String or an Iterable of Strings,
+     * whose items are separated by a blank line.
+     *
+     * @throws IllegalArgumentException if a variable has no value
+     */
+    public String render(Map<String, ?> values) {
+        Object[] resolved = new Object[variables.length];
+        int length = literalLength;
+        for (int i = 0; i < variables.length; i++) {
+            Object value = values.get(variables[i]);
+            if (value == null) {
+                throw new IllegalArgumentException("Missing value for prompt variable: " + variables[i]);
+            }
+            resolved[i] = value;
+            length += lengthOf(value);
+        }
+
+        StringBuilder prompt = new StringBuilder(length);
+        for (int i = 0; i < variables.length; i++) {
+            prompt.append(literals[i]);
+            append(prompt, resolved[i]);
+        }
+        prompt.append(literals[literals.length - 1]);
+        return prompt.toString();
+    }
+
+    private static int lengthOf(Object value) {
+        if (value instanceof Iterable<?> items) {
+            int length = 0;
+            boolean first = true;
+            for (Object item : items) {
+                length += (first ? 0 : LIST_SEPARATOR.length()) + String.valueOf(item).length();
+                first = false;
+            }
+            return length;
+        }
+        return String.valueOf(value).length();
+    }
+
+    private static void append(StringBuilder prompt, Object value) {
+        if (value instanceof Iterable<?> items) {
+            boolean first = true;
+            for (Object item : items) {
+                if (!first) {
+                    prompt.append(LIST_SEPARATOR);
+                }
+                prompt.append(item);
+                first = false;
+            }
+            return;
+        }
+        prompt.append(value);
+    }
+}
@@ -2,6 +2,7 @@ package chatbot.chatbot.service;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.springframework.stereotype.Service;
 
@@ -10,12 +11,15 @@ import chatbot.chatbot.prompttemplate.RagPromptTemplate;
 import dev.langchain4j.data.message.ChatMessage;
 import dev.langchain4j.data.message.SystemMessage;
 import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.request.ChatRequest;
 import dev.langchain4j.model.embedding.DimensionAwareEmbeddingModel;
 import dev.langchain4j.model.ollama.OllamaStreamingChatModel;
 
 @Service
 public class AiService {
 
+    private static final SystemMessage SYSTEM_MESSAGE = new SystemMessage(RagPromptTemplate.RAG_SYSTEM_PROMPT_TEMPLATE);
+
     private final OllamaStreamingChatModel chatModel;
     private final DimensionAwareEmbeddingModel embeddingModel;
 
@@ -36,23 +40,38 @@ public class AiService {
      * @param handler the streaming response handler
      */
     public void streamRag(String message, List<String> contexts, StreamChatHandler handler) {
-        List<ChatMessage> messages = new ArrayList<>();
+        // Stream chat response
+        chatModel.chat(buildMessages(message, contexts), handler);
+    }
 
-        // Build system message
-        SystemMessage systemMessage = new SystemMessage(RagPromptTemplate.RAG_SYSTEM_PROMPT_TEMPLATE);
+    /**
+     * Streams a short answer through the same prompt layout as streamRag. This loads the chat model
+     * and fills the server's prompt cache with the stable system prefix before real traffic arrives.
+     *
+     * @param message the synthetic user message
+     * @param contexts the contexts to include in the prompt
+     * @param maxOutputTokens the number of tokens to generate
+     * @param handler the streaming response handler
+     */
+    public void warmUp(String message, List<String> contexts, int maxOutputTokens, StreamChatHandler handler) {
+        ChatRequest request = ChatRequest.builder()
+            .messages(buildMessages(message, contexts))
+            .maxOutputTokens(maxOutputTokens)
+            .build();
+        chatModel.chat(request, handler);
+    }
 
-        // Build user message with question and contexts
-        UserMessage userMessage = new UserMessage(
-            RagPromptTemplate.RAG_USER_PROMPT_TEMPLATE
-                .replace("{{question}}", message)
-                .replace("{{context}}", String.join("\n\n", contexts))
-        );
+    private static List<ChatMessage> buildMessages(String message, List<String> contexts) {
+        List<ChatMessage> messages = new ArrayList<>(2);
 
-        // Add messages to the list
-        messages.add(systemMessage);
-        messages.add(userMessage);
+        // Stable system message, identical for every request so the server can reuse its cached prefix
+        messages.add(SYSTEM_MESSAGE);
 
-        // Stream chat response
-        chatModel.chat(messages, handler);
+        // Build user message with contexts first and the question last
+        messages.add(new UserMessage(
+            RagPromptTemplate.RAG_USER_PROMPT.render(Map.of("context", contexts, "question", message))
+        ));
+
+        return messages;
     }
 }
\ No newline at end of file
@@ -0,0 +1,580 @@
+package chatbot.chatbot.service;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+
+import chatbot.chatbot.store.PgVectorSegmentRepository;
+import chatbot.chatbot.store.PgVectorSegmentRepository.Duplicate;
+import chatbot.chatbot.store.PgVectorSegmentRepository.StoredSegment;
+import chatbot.chatbot.textsplitter.SimpleTextSplitter;
+import dev.langchain4j.data.segment.TextSegment;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Detects near-duplicate segments before they are embedded, using 64-bit SimHash
+ * fingerprints over word shingles. Segments are only compared within the same
+ * tenant and collection.
+ *
+ * Fingerprints are split into (maxDistance + 1) bands: two fingerprints within
+ * maxDistance bits share at least one identical band, so only fingerprints
+ * sharing a band need to be compared.
+ *
+ * The fingerprint of a stored segment is kept in its "simhash" metadata and reloaded on
+ * startup. When a segment is skipped, the link from its document to the document holding
+ * the kept copy is recorded, so the skipped document can be re-indexed when the kept copy
+ * is removed or replaced.
+ *
+ * While a document is replaced, its new segments are stored before the previous ones are
+ * removed. The fingerprints of the previous version are ignored in the meantime, so they
+ * do not mark the new version as a duplicate of itself.
+ */
+@Service
+public class DeduplicationService {
+
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final int SHINGLE_SIZE = 3;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Fingerprint of a stored segment, its tenant/collection, the document it came from
+     * and the ingestion that stored it (null for segments loaded from the store)
+     */
+    private record Fingerprint(long hash, String tenant, String collection, String source, String ingestId) {}
+
+    private final PgVectorSegmentRepository segmentRepository;
+
+    // Band key (scope, band number, band bits) -> fingerprints sharing that band
+    private final Map<Long, List<Fingerprint>> bands = new HashMap<>();
+
+    // Fingerprints in insertion order, the oldest are evicted beyond maxFingerprints
+    private final ArrayDeque<Fingerprint> fingerprints = new ArrayDeque<>();
+
+    // Document holding a kept segment -> links from documents with skipped copies of it
+    private final Map<String, Set<Duplicate>> duplicatesOf = new HashMap<>();
+
+    // Documents being replaced -> ingestion id of their new version
+    private final Map<String, String> replacing = new HashMap<>();
+
+    private final AtomicLong segmentsChecked = new AtomicLong();
+    private final AtomicLong segmentsSkipped = new AtomicLong();
+    private final AtomicLong bytesSkipped = new AtomicLong();
+    private final AtomicLong embeddedSegments = new AtomicLong();
+    private final AtomicLong embeddingNanos = new AtomicLong();
+
+    private final Counter skippedCounter;
+    private final Counter bytesSavedCounter;
+
+    @Value("${app.vectorstore.dedup.enabled}")
+    private boolean enabled;
+
+    @Value("${app.vectorstore.dedup.simhash-max-distance}")
+    private int maxDistance;
+
+    @Value("${app.vectorstore.dedup.max-fingerprints}")
+    private int maxFingerprints;
+
+    // Reload fingerprints from the store and persist duplicate links (off for the in-memory evaluation store)
+    @Value("${app.vectorstore.dedup.persist}")
+    private boolean persist;
+
+    public DeduplicationService(MeterRegistry meterRegistry, PgVectorSegmentRepository segmentRepository) {
+        this.segmentRepository = segmentRepository;
+        this.skippedCounter = Counter.builder("vectorstore.dedup.skipped")
+            .description("Near-duplicate segments skipped before embedding")
+            .register(meterRegistry);
+        this.bytesSavedCounter = Counter.builder("vectorstore.dedup.bytes.saved")
+            .description("Text bytes of near-duplicate segments not stored")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Rebuild the fingerprints and duplicate links from the store, before the watcher
+     * or any request can ingest documents
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void load() {
+        if (!isPersisted()) {
+            return;
+        }
+
+        try {
+            segmentRepository.createDuplicatesTable();
+            List<Duplicate> duplicates = segmentRepository.findDuplicates();
+            int[] loaded = { 0 };
+
+            synchronized (this) {
+                clearMemory();
+                segmentRepository.forEachSegment(segment -> {
+                    remember(fingerprintOf(segment));
+                    loaded[0]++;
+                });
+                duplicates.forEach(this::link);
+            }
+
+            System.out.println("Loaded " + loaded[0] + " fingerprints and " + duplicates.size() + " duplicate links");
+        } catch (SQLException | RuntimeException e) {
+            System.err.println("Failed to load deduplication fingerprints: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Remove near-duplicates of already stored segments, and of each other, from a batch.
+     * The fingerprints of the kept segments are remembered and added to their metadata,
+     * and a link is recorded for every document whose segment was skipped.
+     *
+     * @return the segments to embed and store
+     */
+    public List<TextSegment> filter(List<TextSegment> segments) {
+        if (!enabled) {
+            return segments;
+        }
+
+        List<TextSegment> kept = new ArrayList<>(segments.size());
+        Set<Duplicate> links = new LinkedHashSet<>();
+
+        synchronized (this) {
+            for (TextSegment segment : segments) {
+                segmentsChecked.incrementAndGet();
+                long hash = simHash(segment.text());
+                Fingerprint fingerprint = fingerprintOf(segment, hash);
+
+                Fingerprint original = findNearDuplicate(fingerprint);
+                if (original != null) {
+                    recordSkipped(segment);
+                    linkIfOtherSource(fingerprint, original.source(), links);
+                    continue;
+                }
+
+                remember(fingerprint);
+                segment.metadata().put(PgVectorSegmentRepository.SIMHASH_KEY, hash);
+                kept.add(segment);
+            }
+        }
+
+        saveLinks(links);
+        return kept;
+    }
+
+    /**
+     * Forget the fingerprints of segments that were not stored after all, e.g. a failed batch
+     */
+    public synchronized void forget(Collection<TextSegment> segments) {
+        Set<Fingerprint> removed = new HashSet<>();
+        for (TextSegment segment : segments) {
+            Long hash = segment.metadata().getLong(PgVectorSegmentRepository.SIMHASH_KEY);
+            if (hash != null) {
+                removed.add(fingerprintOf(segment, hash));
+            }
+        }
+        removeFingerprints(removed::contains);
+    }
+
+    /**
+     * Record how long embedding took, to estimate the time saved by skipped segments
+     */
+    public void recordEmbedding(int segments, long nanos) {
+        embeddedSegments.addAndGet(segments);
+        embeddingNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Record a segment dropped after embedding because a near-identical embedding of another
+     * segment is already stored
+     *
+     * @param duplicateOf the source of the stored segment
+     */
+    public void recordEmbeddingDuplicate(TextSegment segment, String duplicateOf) {
+        forget(List.of(segment));
+        recordSkipped(segment);
+
+        Set<Duplicate> links = new LinkedHashSet<>();
+        synchronized (this) {
+            linkIfOtherSource(fingerprintOf(segment, 0), duplicateOf, links);
+        }
+        saveLinks(links);
+    }
+
+    private void recordSkipped(TextSegment segment) {
+        int bytes = segment.text().getBytes(StandardCharsets.UTF_8).length;
+        segmentsSkipped.incrementAndGet();
+        bytesSkipped.addAndGet(bytes);
+        skippedCounter.increment();
+        bytesSavedCounter.increment(bytes);
+    }
+
+    /**
+     * Start replacing a document with a new version: until completeReplace or abortReplace,
+     * the fingerprints of its previous version are ignored. The links recorded for the skipped
+     * segments of the previous version are dropped, the new version records its own.
+     *
+     * @param ingestId the id the segments of the new version are stored with
+     * @return the dropped links, to restore with abortReplace
+     */
+    public Set<Duplicate> beginReplace(String source, String ingestId) {
+        Set<Duplicate> previous = new LinkedHashSet<>();
+        synchronized (this) {
+            replacing.put(source, ingestId);
+            removeLinksFrom(source, previous);
+        }
+        deleteLinksFrom(source);
+        return previous;
+    }
+
+    /**
+     * Finish replacing a document once its new segments are stored and the previous ones removed:
+     * forget the fingerprints of the previous version
+     *
+     * @return the documents with segments skipped as copies of this one, which must be re-indexed
+     *         since the content they duplicated may have changed
+     */
+    public Set<String> completeReplace(String source, String ingestId) {
+        Set<String> dependents = new LinkedHashSet<>();
+        synchronized (this) {
+            replacing.remove(source);
+            removeFingerprints(fingerprint -> source.equals(fingerprint.source()) && !ingestId.equals(fingerprint.ingestId()));
+            duplicatesOf.getOrDefault(source, Set.of()).forEach(link -> dependents.add(link.source()));
+        }
+        return dependents;
+    }
+
+    /**
+     * Give up replacing a document: forget the fingerprints and links of the new version
+     * and restore the links of the previous one
+     *
+     * @param previous the links returned by beginReplace
+     */
+    public void abortReplace(String source, String ingestId, Set<Duplicate> previous) {
+        synchronized (this) {
+            replacing.remove(source);
+            removeFingerprints(fingerprint -> source.equals(fingerprint.source()) && ingestId.equals(fingerprint.ingestId()));
+            removeLinksFrom(source, new HashSet<>());
+            previous.forEach(this::link);
+        }
+        deleteLinksFrom(source);
+        saveLinks(previous);
+    }
+
+    /**
+     * Check whether a stored segment belongs to the previous version of a document being replaced
+     */
+    public synchronized boolean isStale(String source, String ingestId) {
+        String replacement = replacing.get(source);
+        return replacement != null && !replacement.equals(ingestId);
+    }
+
+    private void removeLinksFrom(String source, Set<Duplicate> removed) {
+        for (Set<Duplicate> links : duplicatesOf.values()) {
+            links.removeIf(link -> {
+                if (source.equals(link.source())) {
+                    removed.add(link);
+                    return true;
+                }
+                return false;
+            });
+        }
+        duplicatesOf.values().removeIf(Set::isEmpty);
+    }
+
+    private void deleteLinksFrom(String source) {
+        if (!isPersisted()) {
+            return;
+        }
+        try {
+            segmentRepository.deleteDuplicatesFrom(source);
+        } catch (SQLException e) {
+            System.err.println("Failed to delete duplicate links of " + source + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Forget the fingerprints and duplicate links of a document, e.g. once it is removed
+     *
+     * @return the documents with segments skipped as copies of this one, which must be re-indexed
+     *         once its segments are removed or replaced
+     */
+    public Set<String> forgetSource(String source) {
+        if (source == null) {
+            return Set.of();
+        }
+
+        Set<String> dependents = new LinkedHashSet<>();
+        synchronized (this) {
+            replacing.remove(source);
+            removeFingerprints(fingerprint -> source.equals(fingerprint.source()));
+
+            Set<Duplicate> links = duplicatesOf.remove(source);
+            if (links != null) {
+                links.forEach(link -> dependents.add(link.source()));
+            }
+            removeLinksFrom(source, new HashSet<>());
+        }
+
+        if (isPersisted()) {
+            try {
+                segmentRepository.deleteDuplicates(source);
+            } catch (SQLException e) {
+                System.err.println("Failed to delete duplicate links of " + source + ": " + e.getMessage());
+            }
+        }
+        return dependents;
+    }
+
+    /**
+     * Forget the fingerprints and duplicate links of a tenant, or of one of its collections
+     */
+    public void forgetScope(String tenant, String collection) {
+        if (tenant == null) {
+            clear();
+            return;
+        }
+
+        synchronized (this) {
+            removeFingerprints(fingerprint -> inScope(fingerprint.tenant(), fingerprint.collection(), tenant, collection));
+            duplicatesOf.values().forEach(set -> set.removeIf(link -> inScope(link.tenant(), link.collection(), tenant, collection)));
+            duplicatesOf.values().removeIf(Set::isEmpty);
+        }
+
+        if (isPersisted()) {
+            try {
+                segmentRepository.deleteDuplicates(tenant, collection);
+            } catch (SQLException e) {
+                System.err.println("Failed to delete duplicate links of " + tenant + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (this) {
+            clearMemory();
+        }
+
+        if (isPersisted()) {
+            try {
+                segmentRepository.deleteDuplicates(null, null);
+            } catch (SQLException e) {
+                System.err.println("Failed to delete duplicate links: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Report how many segments were skipped and the storage and embedding time saved
+     */
+    public Map<String, Object> getStats() {
+        long embedded = embeddedSegments.get();
+        long skipped = segmentsSkipped.get();
+        double avgEmbeddingMs = embedded == 0 ? 0 : embeddingNanos.get() / 1_000_000.0 / embedded;
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("segmentsChecked", segmentsChecked.get());
+        stats.put("segmentsSkipped", skipped);
+        stats.put("textBytesSaved", bytesSkipped.get());
+        stats.put("avgEmbeddingMsPerSegment", avgEmbeddingMs);
+        stats.put("estimatedEmbeddingMsSaved", avgEmbeddingMs * skipped);
+        synchronized (this) {
+            stats.put("fingerprints", fingerprints.size());
+            stats.put("duplicateLinks", duplicatesOf.values().stream().mapToInt(Set::size).sum());
+        }
+        return stats;
+    }
+
+    private Fingerprint findNearDuplicate(Fingerprint fingerprint) {
+        for (long key : bandKeys(fingerprint)) {
+            List<Fingerprint> candidates = bands.get(key);
+            if (candidates == null) {
+                continue;
+            }
+            for (Fingerprint candidate : candidates) {
+                if (Long.bitCount(candidate.hash() ^ fingerprint.hash()) <= maxDistance
+                        && !isReplaced(candidate)
+                        && candidate.tenant().equals(fingerprint.tenant())
+                        && candidate.collection().equals(fingerprint.collection())) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean isReplaced(Fingerprint fingerprint) {
+        String replacement = replacing.get(fingerprint.source());
+        return replacement != null && !replacement.equals(fingerprint.ingestId());
+    }
+
+    private void remember(Fingerprint fingerprint) {
+        for (long key : bandKeys(fingerprint)) {
+            bands.computeIfAbsent(key, k -> new ArrayList<>(1)).add(fingerprint);
+        }
+        fingerprints.addLast(fingerprint);
+
+        // Bound memory: the oldest fingerprints stop taking part in deduplication
+        while (fingerprints.size() > maxFingerprints) {
+            unindex(fingerprints.removeFirst());
+        }
+    }
+
+    private void removeFingerprints(Predicate<Fingerprint> predicate) {
+        fingerprints.removeIf(fingerprint -> {
+            if (predicate.test(fingerprint)) {
+                unindex(fingerprint);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private void unindex(Fingerprint fingerprint) {
+        for (long key : bandKeys(fingerprint)) {
+            List<Fingerprint> list = bands.get(key);
+            if (list != null) {
+                list.remove(fingerprint);
+                if (list.isEmpty()) {
+                    bands.remove(key);
+                }
+            }
+        }
+    }
+
+    private void clearMemory() {
+        bands.clear();
+        fingerprints.clear();
+        duplicatesOf.clear();
+    }
+
+    /**
+     * The duplicates table is only created when deduplication is enabled and persisted
+     */
+    private boolean isPersisted() {
+        return enabled && persist;
+    }
+
+    private void linkIfOtherSource(Fingerprint skipped, String duplicateOf, Set<Duplicate> links) {
+        // Copies inside one document are removed and re-indexed together with it
+        if (duplicateOf == null || duplicateOf.equals(skipped.source())) {
+            return;
+        }
+        Duplicate link = new Duplicate(skipped.source(), duplicateOf, skipped.tenant(), skipped.collection());
+        if (link(link)) {
+            links.add(link);
+        }
+    }
+
+    private boolean link(Duplicate duplicate) {
+        return duplicatesOf.computeIfAbsent(duplicate.duplicateOf(), k -> new HashSet<>()).add(duplicate);
+    }
+
+    private void saveLinks(Set<Duplicate> links) {
+        if (!isPersisted() || links.isEmpty()) {
+            return;
+        }
+        try {
+            segmentRepository.saveDuplicates(links);
+        } catch (SQLException e) {
+            System.err.println("Failed to save duplicate links: " + e.getMessage());
+        }
+    }
+
+    private Fingerprint fingerprintOf(StoredSegment segment) {
+        long hash = segment.simHash() != null ? segment.simHash() : simHash(segment.text() == null ? "" : segment.text());
+        return new Fingerprint(hash, scopeName(segment.tenant()), scopeName(segment.collection()), segment.source(), null);
+    }
+
+    private static Fingerprint fingerprintOf(TextSegment segment, long hash) {
+        return new Fingerprint(hash,
+            scopeName(segment.metadata().getString(SimpleTextSplitter.TENANT_KEY)),
+            scopeName(segment.metadata().getString(SimpleTextSplitter.COLLECTION_KEY)),
+            segment.metadata().getString("source"),
+            segment.metadata().getString(PgVectorSegmentRepository.INGEST_ID_KEY));
+    }
+
+    private static String scopeName(String name) {
+        return name == null ? SimpleTextSplitter.DEFAULT_SCOPE : name;
+    }
+
+    private static boolean inScope(String tenant, String collection, String scopeTenant, String scopeCollection) {
+        return tenant.equals(scopeTenant) && (scopeCollection == null || collection.equals(scopeCollection));
+    }
+
+    private long[] bandKeys(Fingerprint fingerprint) {
+        int bandCount = maxDistance + 1;
+        int bandBits = 64 / bandCount;
+        long mask = bandBits == 64 ? -1L : (1L << bandBits) - 1;
+        long scope = fnv1a(fnv1a(FNV_OFFSET, fingerprint.tenant()), fingerprint.collection());
+
+        long[] keys = new long[bandCount];
+        for (int band = 0; band < bandCount; band++) {
+            long key = (scope ^ band) * FNV_PRIME;
+            keys[band] = (key ^ ((fingerprint.hash() >>> (band * bandBits)) & mask)) * FNV_PRIME;
+        }
+        return keys;
+    }
+
+    /**
+     * Compute the 64-bit SimHash of a text from its word shingles
+     */
+    private static long simHash(String text) {
+        String[] tokens = Arrays.stream(TOKEN_SEPARATOR.split(text.toLowerCase()))
+            .filter(token -> !token.isEmpty())
+            .toArray(String[]::new);
+        if (tokens.length == 0) {
+            return 0;
+        }
+
+        // Texts shorter than a shingle are hashed as a single shingle
+        int shingleSize = Math.min(SHINGLE_SIZE, tokens.length);
+        int[] weights = new int[64];
+
+        for (int i = 0; i + shingleSize <= tokens.length; i++) {
+            long hash = FNV_OFFSET;
+            for (int j = i; j < i + shingleSize; j++) {
+                hash = fnv1a(hash, tokens[j]);
+                hash = (hash ^ ' ') * FNV_PRIME;
+            }
+            for (int bit = 0; bit < 64; bit++) {
+                weights[bit] += ((hash >>> bit) & 1) == 1 ? 1 : -1;
+            }
+        }
+
+        long result = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0) {
+                result |= 1L << bit;
+            }
+        }
+        return result;
+    }
+
+    private static long fnv1a(long hash, String token) {
+        for (int i = 0; i < token.length(); i++) {
+            hash ^= token.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,51 @@
+package chatbot.chatbot.service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.stereotype.Service;
+
+/**
+ * Keeps track of the ingestion state of each file, keyed by its name relative to raw_data.
+ */
+@Service
+public class IngestionStatusService {
+
+    public enum State { INDEXING, INDEXED, FAILED }
+
+    /**
+     * Snapshot of a file's ingestion progress
+     */
+    public record IngestionStatus(String fileName, State state, int segments, String error, Instant updatedAt) {}
+
+    private final Map<String, IngestionStatus> statuses = new ConcurrentHashMap<>();
+
+    public void indexing(String fileName, int segments) {
+        statuses.put(fileName, new IngestionStatus(fileName, State.INDEXING, segments, null, Instant.now()));
+    }
+
+    public void indexed(String fileName, int segments) {
+        statuses.put(fileName, new IngestionStatus(fileName, State.INDEXED, segments, null, Instant.now()));
+    }
+
+    public void failed(String fileName, String error) {
+        IngestionStatus previous = statuses.get(fileName);
+        int segments = previous != null ? previous.segments() : 0;
+        statuses.put(fileName, new IngestionStatus(fileName, State.FAILED, segments, error, Instant.now()));
+    }
+
+    public IngestionStatus get(String fileName) {
+        return statuses.get(fileName);
+    }
+
+    public List<IngestionStatus> getAll() {
+        return new ArrayList<>(statuses.values());
+    }
+
+    public void remove(String fileName) {
+        statuses.remove(fileName);
+    }
+}
@@ -0,0 +1,271 @@
+package chatbot.chatbot.service;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import chatbot.chatbot.service.IngestionStatusService.IngestionStatus;
+import chatbot.chatbot.service.IngestionStatusService.State;
+import chatbot.chatbot.store.PgVectorSegmentRepository;
+import chatbot.chatbot.utils.FileUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Watches the raw data directory and keeps the vector store in sync with it.
+ * Bursts of events on a file are debounced, then the file is re-indexed or removed.
+ */
+@Service
+public class RawDataWatcherService {
+
+    /**
+     * A file waiting to be synced: when it first changed and when it last changed
+     */
+    private record PendingChange(Instant firstEvent, Instant lastEvent) {}
+
+    private final VectorStoreService vectorStoreService;
+    private final IngestionStatusService ingestionStatusService;
+    private final PgVectorSegmentRepository segmentRepository;
+    private final Map<Path, PendingChange> pending = new ConcurrentHashMap<>();
+    private final Set<Path> watchedDirectories = ConcurrentHashMap.newKeySet();
+    private final Timer freshnessTimer;
+    private final Counter errorCounter;
+
+    @Value("${app.vectorstore.watch.enabled}")
+    private boolean enabled;
+
+    @Value("${app.vectorstore.watch.debounce-ms}")
+    private long debounceMs;
+
+    private WatchService watchService;
+    private ScheduledExecutorService scheduler;
+
+    public RawDataWatcherService(VectorStoreService vectorStoreService, IngestionStatusService ingestionStatusService,
+            PgVectorSegmentRepository segmentRepository, MeterRegistry meterRegistry) {
+        this.vectorStoreService = vectorStoreService;
+        this.ingestionStatusService = ingestionStatusService;
+        this.segmentRepository = segmentRepository;
+
+        // Time from the first change of a file until the store reflects it
+        this.freshnessTimer = Timer.builder("vectorstore.index.freshness")
+            .description("Delay between a raw data change and its indexing")
+            .register(meterRegistry);
+        Gauge.builder("vectorstore.index.lag.seconds", this, RawDataWatcherService::currentLagSeconds)
+            .description("Age of the oldest raw data change not yet indexed")
+            .register(meterRegistry);
+        Gauge.builder("vectorstore.index.pending", pending, Map::size)
+            .description("Number of raw data files waiting to be indexed")
+            .register(meterRegistry);
+        this.errorCounter = Counter.builder("vectorstore.watch.errors")
+            .description("Raw data changes the watcher failed to handle or index")
+            .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+
+        try {
+            FileUtils.createRawDataDirectoryIfNotExists();
+            watchService = FileSystems.getDefault().newWatchService();
+            registerRecursively(FileUtils.getRawDataDirectory());
+        } catch (IOException e) {
+            System.err.println("Failed to start raw data watcher: " + e.getMessage());
+            return;
+        }
+
+        scheduler = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "raw-data-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.execute(this::pollEvents);
+        scheduler.scheduleWithFixedDelay(this::processPending, debounceMs, debounceMs, TimeUnit.MILLISECONDS);
+
+        System.out.println("Watching " + FileUtils.getRawDataDirectory() + " for changes");
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close raw data watcher: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Receive file system events and queue the affected files.
+     * A failure on one event is counted and logged, and the watcher keeps running.
+     */
+    private void pollEvents() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.take();
+                Path dir = (Path) key.watchable();
+
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    try {
+                        handleEvent(dir, event);
+                    } catch (IOException | RuntimeException e) {
+                        errorCounter.increment();
+                        System.err.println("Failed to handle change in " + dir + ": " + e.getMessage());
+                    }
+                }
+
+                // The key is no longer valid once its directory is deleted or moved away
+                if (!key.reset()) {
+                    watchedDirectories.remove(dir);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handleEvent(Path dir, WatchEvent<?> event) throws IOException {
+        if (event.kind() == OVERFLOW) {
+            // Events were lost, so resync every file in the directory
+            queueDirectory(FileUtils.getRawDataDirectory());
+            return;
+        }
+
+        Path path = dir.resolve((Path) event.context());
+        if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+            registerRecursively(path);
+            queueDirectory(path);
+        } else if (event.kind() == ENTRY_DELETE && watchedDirectories.contains(path)) {
+            // A directory was deleted or moved away: its documents are removed by source prefix
+            watchedDirectories.removeIf(watched -> watched.startsWith(path));
+            queue(path);
+        } else if (FileUtils.isAllowedFileType(path)) {
+            queue(path);
+        }
+    }
+
+    private void queue(Path path) {
+        Instant now = Instant.now();
+        pending.merge(path, new PendingChange(now, now),
+            (previous, latest) -> new PendingChange(previous.firstEvent(), latest.lastEvent()));
+    }
+
+    private void queueDirectory(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.filter(Files::isRegularFile)
+                .filter(FileUtils::isAllowedFileType)
+                .forEach(this::queue);
+        }
+    }
+
+    private void registerRecursively(Path root) throws IOException {
+        try (Stream<Path> dirs = Files.walk(root)) {
+            for (Path dir : dirs.filter(Files::isDirectory).toList()) {
+                dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                watchedDirectories.add(dir);
+            }
+        }
+    }
+
+    /**
+     * Sync the files whose last change is older than the debounce delay
+     */
+    private void processPending() {
+        Instant settled = Instant.now().minusMillis(debounceMs);
+
+        for (Map.Entry<Path, PendingChange> entry : pending.entrySet()) {
+            Path path = entry.getKey();
+            PendingChange change = entry.getValue();
+            if (change.lastEvent().isAfter(settled) || !pending.remove(path, change)) {
+                continue;
+            }
+
+            try {
+                if (sync(path)) {
+                    freshnessTimer.record(Duration.between(change.firstEvent(), Instant.now()));
+                } else {
+                    pending.putIfAbsent(path, change);
+                }
+            } catch (Exception e) {
+                errorCounter.increment();
+                System.err.println("Failed to index " + path + ": " + e.getMessage());
+                ingestionStatusService.failed(FileUtils.getRelativeName(path), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Apply the current state of a file to the store
+     *
+     * @return false if the file is still being ingested elsewhere and should be retried
+     */
+    private boolean sync(Path path) throws Exception {
+        if (Files.isDirectory(path)) {
+            return true;
+        }
+        if (!Files.isRegularFile(path)) {
+            // A deleted file, or a deleted directory whose documents are found by source prefix
+            vectorStoreService.removeDocument(path);
+            for (String source : segmentRepository.findSourcesUnder(path.toString())) {
+                vectorStoreService.removeDocument(Path.of(source));
+            }
+            return true;
+        }
+
+        IngestionStatus status = ingestionStatusService.get(FileUtils.getRelativeName(path));
+        if (status != null && status.state() == State.INDEXING) {
+            return false;
+        }
+
+        // Skip files already indexed since their last modification, e.g. streamed uploads
+        if (status != null && status.state() == State.INDEXED
+                && !status.updatedAt().isBefore(Files.getLastModifiedTime(path).toInstant())) {
+            return true;
+        }
+
+        int segments = vectorStoreService.reindexDocument(path);
+        System.out.println("Indexed changed document: " + path.getFileName() + " (" + segments + " segments)");
+        return true;
+    }
+
+    private double currentLagSeconds() {
+        Instant now = Instant.now();
+        return pending.values().stream()
+            .mapToDouble(change -> Duration.between(change.firstEvent(), now).toMillis() / 1000.0)
+            .max()
+            .orElse(0);
+    }
+}
@@ -0,0 +1,347 @@
+package chatbot.chatbot.service;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import chatbot.chatbot.store.PgVectorSegmentRepository;
+import chatbot.chatbot.textsplitter.SimpleTextSplitter;
+import chatbot.chatbot.utils.Percentiles;
+
+/**
+ * Manages the approximate nearest neighbour (ANN) index on the pgvector table
+ * and measures how well it performs against an exact search.
+ */
+@Service
+public class VectorIndexService {
+
+    private static final String HNSW = "hnsw";
+    private static final String IVFFLAT = "ivfflat";
+
+    /**
+     * Build parameters and validity of an existing ANN index
+     */
+    private record IndexState(Map<String, String> options, boolean valid) {}
+
+    private final DataSource dataSource;
+    private final PgVectorSegmentRepository segmentRepository;
+
+    @Value("${app.database.table}")
+    private String tableName;
+
+    @Value("${app.vectorstore.index.type}")
+    private String indexType;
+
+    @Value("${app.vectorstore.index.hnsw-m}")
+    private int hnswM;
+
+    @Value("${app.vectorstore.index.hnsw-ef-construction}")
+    private int hnswEfConstruction;
+
+    @Value("${app.vectorstore.index.ivfflat-lists}")
+    private int ivfflatLists;
+
+    public VectorIndexService(DataSource vectorDataSource, PgVectorSegmentRepository segmentRepository) {
+        this.dataSource = vectorDataSource;
+        this.segmentRepository = segmentRepository;
+    }
+
+    /**
+     * Create the metadata indexes and the configured ANN index once the application has started.
+     * Indexes are built CONCURRENTLY on a background thread, so neither startup nor writes are blocked.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        Thread thread = new Thread(() -> {
+            try {
+                ensureIndex();
+            } catch (SQLException e) {
+                System.err.println("Failed to create vector index: " + e.getMessage());
+            }
+        }, "vector-index");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Make the ANN index match the configuration. The index of the other type is dropped so the
+     * planner cannot pick a stale one, and an existing index built with other parameters
+     * (or left invalid by an interrupted build) is rebuilt.
+     *
+     * @return what was done, e.g. "created", "rebuilt" or "unchanged"
+     */
+    public synchronized String ensureIndex() throws SQLException {
+        String type = indexType.trim().toLowerCase();
+
+        // Searches are always filtered by tenant, so rows stored before scoping must get one
+        int backfilled = segmentRepository.backfillScope();
+        if (backfilled > 0) {
+            System.out.println("Added the default tenant and collection to " + backfilled + " segments");
+        }
+
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+
+            // Tenant/collection filters use this index instead of post-filtering a global top-k
+            statement.executeUpdate(String.format(
+                "CREATE INDEX CONCURRENTLY IF NOT EXISTS %s_scope_idx ON %s ((metadata->>'%s'), (metadata->>'%s'))",
+                tableName, tableName, SimpleTextSplitter.TENANT_KEY, SimpleTextSplitter.COLLECTION_KEY));
+
+            // Incremental updates replace a document's segments by source
+            statement.executeUpdate(String.format(
+                "CREATE INDEX CONCURRENTLY IF NOT EXISTS %s_source_idx ON %s ((metadata->>'source'))", tableName, tableName));
+
+            String action;
+            switch (type) {
+                case HNSW -> {
+                    dropIndex(statement, IVFFLAT);
+                    action = ensureAnnIndex(connection, statement, HNSW, false);
+                }
+                case IVFFLAT -> {
+                    dropIndex(statement, HNSW);
+                    action = ensureAnnIndex(connection, statement, IVFFLAT, false);
+                }
+                case "none" -> {
+                    dropIndex(statement, HNSW);
+                    dropIndex(statement, IVFFLAT);
+                    action = "dropped";
+                }
+                default -> {
+                    System.err.println("Unknown vector index type: " + indexType);
+                    return "unknown type";
+                }
+            }
+
+            System.out.println("Vector index " + action + ": " + type + " on " + tableName);
+            return action;
+        }
+    }
+
+    /**
+     * Rebuild the ANN index from the current rows, e.g. after loading documents into an IVFFlat
+     * index whose lists were computed on an empty table. When its parameters are unchanged it is
+     * reindexed CONCURRENTLY, so the old index keeps serving searches until the new one is ready.
+     *
+     * @return what was done, e.g. "reindexed" or "created"
+     */
+    public synchronized String rebuildIndex() throws SQLException {
+        String type = indexType.trim().toLowerCase();
+        if (!type.equals(HNSW) && !type.equals(IVFFLAT)) {
+            return ensureIndex();
+        }
+
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+
+            String action = ensureAnnIndex(connection, statement, type, true);
+            if (action.equals("unchanged")) {
+                statement.executeUpdate("REINDEX INDEX CONCURRENTLY " + indexName(type));
+                action = "reindexed";
+            }
+
+            System.out.println("Vector index " + action + ": " + type + " on " + tableName);
+            return action;
+        }
+    }
+
+    /**
+     * Create the index of the given type, rebuilding it when its parameters differ from the configuration
+     *
+     * @param force create an IVFFlat index even when the table has fewer rows than lists
+     */
+    private String ensureAnnIndex(Connection connection, Statement statement, String type, boolean force) throws SQLException {
+        Map<String, String> expected = expectedOptions(type);
+        IndexState state = indexState(connection, indexName(type));
+
+        String action = "created";
+        if (state != null) {
+            if (state.valid() && state.options().equals(expected)) {
+                return "unchanged";
+            }
+            System.out.println("Rebuilding vector index " + indexName(type) + ": "
+                + (state.valid() ? "parameters " + state.options() + " differ from " + expected : "index is invalid"));
+            dropIndex(statement, type);
+            action = "rebuilt";
+        }
+
+        // IVFFlat lists are computed from the rows present at build time
+        if (type.equals(IVFFLAT) && !force && countRows(statement, ivfflatLists) < ivfflatLists) {
+            System.out.println("Skipping ivfflat index until the table has at least " + ivfflatLists
+                + " rows; call POST /api/rebuildIndex after loading the documents");
+            return "deferred";
+        }
+
+        String with = expected.entrySet().stream()
+            .map(option -> option.getKey() + " = " + option.getValue())
+            .collect(Collectors.joining(", "));
+        statement.executeUpdate(String.format(
+            "CREATE INDEX CONCURRENTLY %s ON %s USING %s (embedding vector_cosine_ops) WITH (%s)",
+            indexName(type), tableName, type, with));
+        return action;
+    }
+
+    private Map<String, String> expectedOptions(String type) {
+        Map<String, String> options = new LinkedHashMap<>();
+        if (type.equals(HNSW)) {
+            options.put("m", String.valueOf(hnswM));
+            options.put("ef_construction", String.valueOf(hnswEfConstruction));
+        } else {
+            options.put("lists", String.valueOf(ivfflatLists));
+        }
+        return options;
+    }
+
+    /**
+     * Parameters and validity of an existing index, or null when it does not exist
+     */
+    private IndexState indexState(Connection connection, String indexName) throws SQLException {
+        String sql = "SELECT c.reloptions, i.indisvalid FROM pg_class c JOIN pg_index i ON i.indexrelid = c.oid "
+            + "WHERE c.oid = to_regclass(?)";
+
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, indexName);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return null;
+                }
+
+                // reloptions holds entries like "m=16"; options left at their default are absent
+                Map<String, String> options = new LinkedHashMap<>();
+                Array reloptions = resultSet.getArray(1);
+                if (reloptions != null) {
+                    for (String option : (String[]) reloptions.getArray()) {
+                        int separator = option.indexOf('=');
+                        options.put(option.substring(0, separator), option.substring(separator + 1));
+                    }
+                }
+                return new IndexState(options, resultSet.getBoolean(2));
+            }
+        }
+    }
+
+    private int countRows(Statement statement, int limit) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery(
+                "SELECT count(*) FROM (SELECT 1 FROM " + tableName + " LIMIT " + limit + ") t")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    private void dropIndex(Statement statement, String type) throws SQLException {
+        statement.executeUpdate("DROP INDEX CONCURRENTLY IF EXISTS " + indexName(type));
+    }
+
+    /**
+     * Compare the ANN index against an exact (sequential scan) search.
+     * Stored embeddings are sampled as queries, so this only needs a populated table.
+     *
+     * @param samples number of stored embeddings used as queries
+     * @param k number of neighbours compared per query
+     * @return recall@k and latency percentiles for both search modes
+     */
+    public Map<String, Object> recallReport(int samples, int k) throws SQLException {
+        List<Double> annLatencies = new ArrayList<>();
+        List<Double> exactLatencies = new ArrayList<>();
+        double recallSum = 0;
+
+        // The sampled row is excluded, otherwise every query finds itself and inflates recall
+        String searchSql = "SELECT embedding_id FROM " + tableName
+            + " WHERE embedding_id <> ?::uuid ORDER BY embedding <=> ?::vector LIMIT ?";
+        // A different statement text, so the driver never reuses the ANN query's server-side
+        // prepared statement, whose cached generic plan would still use the index
+        String exactSql = "SELECT embedding_id FROM " + tableName
+            + " WHERE embedding_id <> ?::uuid ORDER BY embedding <=> ?::vector LIMIT ? /* exact */";
+
+        try (Connection connection = dataSource.getConnection()) {
+            List<Sample> queries = sampleEmbeddings(connection, samples);
+
+            for (Sample query : queries) {
+                long start = System.nanoTime();
+                Set<String> annIds = searchIds(connection, searchSql, query, k);
+                annLatencies.add((System.nanoTime() - start) / 1_000_000.0);
+
+                // Force a sequential scan inside a transaction to get the exact neighbours
+                connection.setAutoCommit(false);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("SET LOCAL enable_indexscan = off");
+                    statement.execute("SET LOCAL plan_cache_mode = force_custom_plan");
+                    start = System.nanoTime();
+                    Set<String> exactIds = searchIds(connection, exactSql, query, k);
+                    exactLatencies.add((System.nanoTime() - start) / 1_000_000.0);
+
+                    annIds.retainAll(exactIds);
+                    recallSum += exactIds.isEmpty() ? 1.0 : (double) annIds.size() / exactIds.size();
+                } finally {
+                    connection.commit();
+                    connection.setAutoCommit(true);
+                }
+            }
+
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("indexType", indexType);
+            report.put("samples", queries.size());
+            report.put("k", k);
+            report.put("recall", queries.isEmpty() ? 0.0 : recallSum / queries.size());
+            report.put("annLatencyMs", Percentiles.summarize(annLatencies, 50, 95));
+            report.put("exactLatencyMs", Percentiles.summarize(exactLatencies, 50, 95));
+            return report;
+        }
+    }
+
+    /**
+     * A stored row used as a query: its id and its embedding as a vector literal
+     */
+    private record Sample(String id, String embedding) {}
+
+    private List<Sample> sampleEmbeddings(Connection connection, int samples) throws SQLException {
+        List<Sample> embeddings = new ArrayList<>();
+        String sql = "SELECT embedding_id::text, embedding::text FROM " + tableName + " ORDER BY random() LIMIT ?";
+
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, samples);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    embeddings.add(new Sample(resultSet.getString(1), resultSet.getString(2)));
+                }
+            }
+        }
+        return embeddings;
+    }
+
+    private static Set<String> searchIds(Connection connection, String sql, Sample query, int k) throws SQLException {
+        Set<String> ids = new HashSet<>();
+
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, query.id());
+            statement.setString(2, query.embedding());
+            statement.setInt(3, k);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    ids.add(resultSet.getString(1));
+                }
+            }
+        }
+        return ids;
+    }
+
+    private String indexName(String type) {
+        return tableName + "_embedding_" + type + "_idx";
+    }
+}
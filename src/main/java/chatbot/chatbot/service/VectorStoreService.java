@@ -1,31 +1,75 @@
 package chatbot.chatbot.service;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.stream.Stream;
 
+import chatbot.chatbot.store.PgVectorBulkLoader;
+import chatbot.chatbot.store.PgVectorSegmentRepository;
+import chatbot.chatbot.store.PgVectorSegmentRepository.Duplicate;
 import chatbot.chatbot.textsplitter.SimpleTextSplitter;
 import chatbot.chatbot.utils.FileUtils;
+import chatbot.chatbot.utils.TeeInputStream;
 import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.model.embedding.DimensionAwareEmbeddingModel;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
 import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
 import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+import dev.langchain4j.store.embedding.filter.MetadataFilterBuilder;
 
 @Service
 public class VectorStoreService {
 
     private final EmbeddingStore<TextSegment> embeddingStore;
     private final DimensionAwareEmbeddingModel embeddingModel;
+    private final PgVectorBulkLoader bulkLoader;
+    private final IngestionStatusService ingestionStatusService;
+    private final DeduplicationService deduplicationService;
 
-    public VectorStoreService(EmbeddingStore<TextSegment> embeddingStore, DimensionAwareEmbeddingModel embeddingModel) {
+    @Value("${app.vectorstore.min-score}")
+    private double minScore;
+
+    @Value("${app.vectorstore.ingest.batch-size}")
+    private int batchSize;
+
+    @Value("${app.vectorstore.ingest.use-copy}")
+    private boolean useCopy;
+
+    // Cosine similarity above which a new segment duplicates a stored one (0 disables the check)
+    @Value("${app.vectorstore.dedup.cosine-threshold}")
+    private double dedupCosineThreshold;
+
+    public VectorStoreService(EmbeddingStore<TextSegment> embeddingStore, DimensionAwareEmbeddingModel embeddingModel,
+            PgVectorBulkLoader bulkLoader, IngestionStatusService ingestionStatusService,
+            DeduplicationService deduplicationService) {
         this.embeddingStore = embeddingStore;
         this.embeddingModel = embeddingModel;
+        this.bulkLoader = bulkLoader;
+        this.ingestionStatusService = ingestionStatusService;
+        this.deduplicationService = deduplicationService;
     }
 
     /**
@@ -39,7 +83,7 @@ public class VectorStoreService {
         }
         
         try {
-            Path rawDataDir = Paths.get("raw_data");
+            Path rawDataDir = FileUtils.getRawDataDirectory();
             if (!Files.exists(rawDataDir)) {
                 System.out.println("Raw data directory does not exist");
                 return false;
@@ -50,6 +94,8 @@ public class VectorStoreService {
                 List<Path> documentPaths = paths
                     .filter(Files::isRegularFile)
                     .filter(FileUtils::isAllowedFileType)
+                    // Path order, so the same copy of a near-duplicate is kept on every run
+                    .sorted()
                     .toList();
 
                 if (documentPaths.isEmpty()) {
@@ -59,12 +105,57 @@ public class VectorStoreService {
 
                 System.out.println("Processing " + documentPaths.size() + " documents...");
 
-                // Process each document
+                // The new segments are stored with this run's id, and the previous segments of each
+                // document are only removed once all of them are stored, so the index stays searchable
+                String ingestId = UUID.randomUUID().toString();
+                Map<String, Set<Duplicate>> previousLinks = new LinkedHashMap<>();
+                for (Path docPath : documentPaths) {
+                    previousLinks.put(docPath.toString(), deduplicationService.beginReplace(docPath.toString(), ingestId));
+                }
+
+                // Process each document, storing segments in batches
+                Map<String, Integer> segmentCounts = new LinkedHashMap<>();
+                try {
+                    List<TextSegment> pending = new ArrayList<>();
+                    for (Path docPath : documentPaths) {
+                        segmentCounts.put(FileUtils.getRelativeName(docPath), 0);
+                        pending.addAll(processDocument(docPath, ingestId));
+                        if (pending.size() >= batchSize) {
+                            countStored(storeSegments(pending), segmentCounts);
+                            pending.clear();
+                        }
+                    }
+                    countStored(storeSegments(pending), segmentCounts);
+                } catch (IOException | SQLException | RuntimeException e) {
+                    previousLinks.forEach((source, links) -> discardNewVersion(source, ingestId, links, e));
+                    throw e;
+                }
+
+                Set<String> dependents = new LinkedHashSet<>();
+                RuntimeException removeError = null;
                 for (Path docPath : documentPaths) {
-                    processDocument(docPath);
+                    try {
+                        dependents.addAll(removePreviousVersion(docPath.toString(), ingestId));
+                    } catch (RuntimeException e) {
+                        if (removeError == null) {
+                            removeError = e;
+                        } else {
+                            removeError.addSuppressed(e);
+                        }
+                    }
+                }
+                if (removeError != null) {
+                    throw removeError;
                 }
+                segmentCounts.forEach(ingestionStatusService::indexed);
+
+                // Documents outside raw_data that duplicated a processed one
+                Set<String> processed = new HashSet<>(previousLinks.keySet());
+                dependents.removeAll(processed);
+                reindexDependents(dependents, processed);
 
                 System.out.println("Successfully processed all documents");
+                System.out.println("Deduplication: " + deduplicationService.getStats());
                 return true;
             }
         } catch (Exception e) {
@@ -75,66 +166,414 @@ public class VectorStoreService {
     }
 
     /**
-     * Process a single document: load, split into chunks, and store as text segments
+     * Add the segments stored per document (relative name) to the counts
+     */
+    private static void countStored(List<TextSegment> stored, Map<String, Integer> segmentCounts) {
+        for (TextSegment segment : stored) {
+            segmentCounts.merge(FileUtils.getRelativeName(Path.of(segment.metadata().getString("source"))), 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Process a single document: load and split into chunks
      * This is a simplified version that manually splits text
      */
-    private void processDocument(Path docPath) throws IOException {
+    private List<TextSegment> processDocument(Path docPath, String ingestId) throws IOException {
         // Read the entire file content
         String content = Files.readString(docPath);
         
         // Simple text splitting
-        List<TextSegment> segments = SimpleTextSplitter.splitTextIntoSegments(content, docPath.toString());
-        
-        // Store segments with embeddings
-        for (TextSegment segment : segments) {
-            Embedding embedding = embeddingModel.embed(segment).content();
-            embeddingStore.add(embedding, segment);
-        }
+        List<TextSegment> segments = SimpleTextSplitter.splitTextIntoSegments(
+            content, docPath.toString(), FileUtils.getTenant(docPath), FileUtils.getCollection(docPath));
+        segments.forEach(segment -> segment.metadata().put(PgVectorSegmentRepository.INGEST_ID_KEY, ingestId));
         
         System.out.println("Processed document: " + docPath.getFileName() + " (" + segments.size() + " segments)");
+        return segments;
     }
 
     /**
-     * Search for similar content in the vector store
-     * Note: This requires actual embeddings to work properly
+     * Replace the stored segments of a document with its current content
+     *
+     * @return the number of segments stored
      */
-    public List<String> search(String query, int maxResults) {
-        if (embeddingStore == null) {
-            System.err.println("Cannot search: EmbeddingStore not initialized");
+    public int reindexDocument(Path docPath) throws IOException, SQLException {
+        return reindexDocument(docPath, new HashSet<>());
+    }
+
+    private int reindexDocument(Path docPath, Set<String> visited) throws IOException, SQLException {
+        String source = docPath.toString();
+        visited.add(source);
+
+        // The previous segments stay searchable until the new ones are stored
+        String ingestId = UUID.randomUUID().toString();
+        Set<Duplicate> previousLinks = deduplicationService.beginReplace(source, ingestId);
+        int stored = 0;
+        try {
+            List<TextSegment> segments = processDocument(docPath, ingestId);
+            for (int i = 0; i < segments.size(); i += batchSize) {
+                stored += storeSegments(segments.subList(i, Math.min(i + batchSize, segments.size()))).size();
+            }
+        } catch (IOException | SQLException | RuntimeException e) {
+            discardNewVersion(source, ingestId, previousLinks, e);
+            throw e;
+        }
+
+        Set<String> dependents = removePreviousVersion(source, ingestId);
+        ingestionStatusService.indexed(FileUtils.getRelativeName(docPath), stored);
+        reindexDependents(dependents, visited);
+        return stored;
+    }
+
+    /**
+     * Remove the stored segments of a document
+     */
+    public void removeDocument(Path docPath) {
+        removeDocument(docPath, new HashSet<>());
+    }
+
+    private void removeDocument(Path docPath, Set<String> visited) {
+        visited.add(docPath.toString());
+        embeddingStore.removeAll(sourceFilter(docPath));
+        Set<String> dependents = deduplicationService.forgetSource(docPath.toString());
+        ingestionStatusService.remove(FileUtils.getRelativeName(docPath));
+        System.out.println("Removed document: " + docPath.getFileName());
+        reindexDependents(dependents, visited);
+    }
+
+    /**
+     * Re-index the documents whose segments were skipped as near-duplicates of a document
+     * that was removed or replaced, so their content is stored again
+     *
+     * @param visited the documents already handled, to stop at cycles
+     */
+    private void reindexDependents(Set<String> dependents, Set<String> visited) {
+        for (String source : dependents) {
+            if (visited.contains(source)) {
+                continue;
+            }
+            Path docPath = Path.of(source);
+            try {
+                if (Files.isRegularFile(docPath)) {
+                    System.out.println("Re-indexing " + docPath.getFileName() + ": the document it duplicated changed");
+                    reindexDocument(docPath, visited);
+                } else {
+                    removeDocument(docPath, visited);
+                }
+            } catch (IOException | SQLException | RuntimeException e) {
+                System.err.println("Failed to re-index " + docPath.getFileName() + ": " + e.getMessage());
+                ingestionStatusService.failed(FileUtils.getRelativeName(docPath), e.getMessage());
+            }
+        }
+    }
+
+    private static Filter sourceFilter(Path docPath) {
+        return MetadataFilterBuilder.metadataKey("source").isEqualTo(docPath.toString());
+    }
+
+    /**
+     * Match the segments of a document stored by one ingestion
+     */
+    private static Filter ingestFilter(String source, String ingestId) {
+        return MetadataFilterBuilder.metadataKey("source").isEqualTo(source)
+            .and(MetadataFilterBuilder.metadataKey(PgVectorSegmentRepository.INGEST_ID_KEY).isEqualTo(ingestId));
+    }
+
+    /**
+     * Match the segments of a document stored by any other ingestion, including rows without an id
+     */
+    private static Filter staleFilter(String source, String ingestId) {
+        // not(isEqualTo) rather than isNotEqualTo: the pgvector filter mapper renders the latter as
+        // "key is null or key != value" without parentheses, which would escape the source condition
+        return MetadataFilterBuilder.metadataKey("source").isEqualTo(source)
+            .and(Filter.not(MetadataFilterBuilder.metadataKey(PgVectorSegmentRepository.INGEST_ID_KEY).isEqualTo(ingestId)));
+    }
+
+    /**
+     * Remove the segments stored so far for a new version of a document that failed,
+     * leaving the previous version in place
+     */
+    private void discardNewVersion(String source, String ingestId, Set<Duplicate> previousLinks, Exception error) {
+        try {
+            embeddingStore.removeAll(ingestFilter(source, ingestId));
+        } catch (RuntimeException e) {
+            error.addSuppressed(e);
+        }
+        deduplicationService.abortReplace(source, ingestId, previousLinks);
+    }
+
+    /**
+     * Remove the segments of the previous version of a document, once the new version is stored
+     *
+     * @return the documents that duplicated the previous version and must be re-indexed
+     */
+    private Set<String> removePreviousVersion(String source, String ingestId) {
+        try {
+            embeddingStore.removeAll(staleFilter(source, ingestId));
+        } catch (RuntimeException e) {
+            deduplicationService.completeReplace(source, ingestId);
+            throw e;
+        }
+        return deduplicationService.completeReplace(source, ingestId);
+    }
+
+    /**
+     * Index a document while it is being received: the bytes are written to the raw copy
+     * and split, embedded and stored in batches in the same pass.
+     * The raw copy is written to a temporary file and only replaces the target once indexing
+     * succeeded. The segments of the previous version stay searchable until the new ones are
+     * stored; on failure only the new segments are removed.
+     *
+     * @param input the incoming document content
+     * @param target the raw_data location the document is kept at
+     * @return the number of segments stored
+     */
+    public int ingestStream(InputStream input, Path target, String tenant, String collection) throws IOException {
+        String fileName = FileUtils.getRelativeName(target);
+        String source = target.toString();
+        List<TextSegment> pending = new ArrayList<>();
+        int[] stored = { 0 };
+
+        ingestionStatusService.indexing(fileName, 0);
+
+        // New segments are tagged with this upload, the previous ones are removed once they are stored
+        String ingestId = UUID.randomUUID().toString();
+        Set<Duplicate> previousLinks = deduplicationService.beginReplace(source, ingestId);
+
+        Path temp = FileUtils.createUploadFile(target);
+        try {
+            try (Reader reader = new InputStreamReader(
+                    new TeeInputStream(input, new BufferedOutputStream(Files.newOutputStream(temp))), StandardCharsets.UTF_8)) {
+
+                SimpleTextSplitter.splitStream(reader, source, tenant, collection, segment -> {
+                    segment.metadata().put(PgVectorSegmentRepository.INGEST_ID_KEY, ingestId);
+                    pending.add(segment);
+                    if (pending.size() >= batchSize) {
+                        stored[0] += storeBatch(pending);
+                        pending.clear();
+                        ingestionStatusService.indexing(fileName, stored[0]);
+                    }
+                });
+                stored[0] += storeBatch(pending);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        } catch (IOException | RuntimeException e) {
+            // The previous version is still in raw_data and its segments were never removed
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException cleanupError) {
+                e.addSuppressed(cleanupError);
+            }
+            discardNewVersion(source, ingestId, previousLinks, e);
+            ingestionStatusService.failed(fileName, e.getMessage());
+            throw e;
+        }
+
+        Set<String> dependents = removePreviousVersion(source, ingestId);
+        ingestionStatusService.indexed(fileName, stored[0]);
+        reindexDependents(dependents, new HashSet<>(Set.of(source)));
+        System.out.println("Streamed document: " + target.getFileName() + " (" + stored[0] + " segments)");
+        return stored[0];
+    }
+
+    private int storeBatch(List<TextSegment> segments) throws IOException {
+        try {
+            return storeSegments(segments).size();
+        } catch (SQLException e) {
+            throw new IOException("Failed to store segments: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Embed a batch of segments and store them, using binary COPY when enabled.
+     * Near-duplicates are dropped before embedding (SimHash) and, when a cosine
+     * threshold is set, after embedding against the segments already stored.
+     *
+     * @return the segments stored
+     */
+    private List<TextSegment> storeSegments(List<TextSegment> segments) throws IOException, SQLException {
+        if (segments.isEmpty()) {
             return List.of();
         }
-        
+
+        List<TextSegment> unique = deduplicationService.filter(segments);
         try {
-            // Get embedding for the query message
-            var queryEmbedding = embeddingModel.embed(query).content();
+            if (unique.isEmpty()) {
+                System.out.println("Skipped batch of " + segments.size() + " near-duplicate segments");
+                return List.of();
+            }
 
-            // Build search request
-            var searchRequest = EmbeddingSearchRequest.builder()
-                .queryEmbedding(queryEmbedding)
-                .maxResults(maxResults)
-                .minScore(0.7) // Only return results with similarity > 0.7
-                .build();
-            
-            var searchResult = embeddingStore.search(searchRequest);
-            
-            // Extract text from matches
-            return searchResult.matches().stream()
-                .map(match -> match.embedded().text())
+            long start = System.nanoTime();
+            List<Embedding> embeddings = embeddingModel.embedAll(unique).content();
+            deduplicationService.recordEmbedding(unique.size(), System.nanoTime() - start);
+
+            if (dedupCosineThreshold > 0) {
+                List<Embedding> keptEmbeddings = new ArrayList<>(embeddings.size());
+                List<TextSegment> keptSegments = new ArrayList<>(unique.size());
+                for (int i = 0; i < unique.size(); i++) {
+                    String duplicateOf = storedNearDuplicateSource(embeddings.get(i), unique.get(i));
+                    if (duplicateOf != null) {
+                        deduplicationService.recordEmbeddingDuplicate(unique.get(i), duplicateOf);
+                    } else {
+                        keptEmbeddings.add(embeddings.get(i));
+                        keptSegments.add(unique.get(i));
+                    }
+                }
+                embeddings = keptEmbeddings;
+                unique = keptSegments;
+            }
+
+            if (unique.isEmpty()) {
+                return List.of();
+            }
+
+            if (useCopy) {
+                bulkLoader.copy(embeddings, unique);
+            } else {
+                embeddingStore.addAll(embeddings, unique);
+            }
+        } catch (IOException | SQLException | RuntimeException e) {
+            // The batch was not stored, so its fingerprints must not suppress a retry
+            deduplicationService.forget(unique);
+            throw e;
+        }
+
+        System.out.println("Stored batch of " + unique.size() + " segments ("
+            + (segments.size() - unique.size()) + " near-duplicates skipped)");
+        return unique;
+    }
+
+    /**
+     * Find a stored segment of the same tenant/collection whose embedding is within the cosine threshold
+     *
+     * @return the source of that segment, or null when there is none
+     */
+    private String storedNearDuplicateSource(Embedding embedding, TextSegment segment) {
+        var searchRequest = EmbeddingSearchRequest.builder()
+            .queryEmbedding(embedding)
+            .maxResults(1)
+            .minScore(RelevanceScore.fromCosineSimilarity(dedupCosineThreshold))
+            .filter(scopeFilter(
+                segment.metadata().getString(SimpleTextSplitter.TENANT_KEY),
+                segment.metadata().getString(SimpleTextSplitter.COLLECTION_KEY)))
+            .build();
+
+        return embeddingStore.search(searchRequest).matches().stream()
+            .map(match -> match.embedded().metadata())
+            // The previous version of a document being replaced is about to be removed
+            .filter(metadata -> !deduplicationService.isStale(
+                metadata.getString("source"), metadata.getString(PgVectorSegmentRepository.INGEST_ID_KEY)))
+            .map(metadata -> metadata.getString("source"))
+            .findFirst()
+            .orElse(null);
+    }
+
+    /**
+     * Search for similar content in the vector store
+     * Note: This requires actual embeddings to work properly
+     */
+    public List<String> search(String query, int maxResults) {
+        return search(query, maxResults, null);
+    }
+
+    /**
+     * Search for similar content in the vector store, restricted to segments matching the filter
+     *
+     * @param filter metadata filter applied inside the database query, or null to search everything
+     */
+    public List<String> search(String query, int maxResults, Filter filter) {
+        try {
+            return searchSegments(query, maxResults, filter).stream()
+                .map(TextSegment::text)
                 .toList();
-                
         } catch (Exception e) {
             System.err.println("Error searching vector store: " + e.getMessage());
             return List.of();
         }
     }
 
+    /**
+     * Search for similar segments in the vector store, keeping their metadata (source, tenant, ...).
+     * Unlike search, errors of the embedding model or the store are thrown to the caller.
+     *
+     * @param filter metadata filter applied inside the database query, or null to search everything
+     */
+    public List<TextSegment> searchSegments(String query, int maxResults, Filter filter) {
+        if (embeddingStore == null) {
+            throw new IllegalStateException("Cannot search: EmbeddingStore not initialized");
+        }
+
+        // Get embedding for the query message
+        var queryEmbedding = embeddingModel.embed(query).content();
+
+        // Build search request
+        var searchRequest = EmbeddingSearchRequest.builder()
+            .queryEmbedding(queryEmbedding)
+            .maxResults(maxResults)
+            .minScore(minScore) // Only return results with similarity > app.vectorstore.min-score
+            .filter(filter)
+            .build();
+
+        var searchResult = embeddingStore.search(searchRequest);
+
+        // Extract segments from matches, best first: relaxed_order iterative scans
+        // may return rows slightly out of order
+        return searchResult.matches().stream()
+            .sorted(Comparator.comparingDouble(EmbeddingMatch<TextSegment>::score).reversed())
+            .map(match -> match.embedded())
+            .toList();
+    }
+
+    /**
+     * Build the filter for a chat search. Searches are always scoped to one tenant, so teams
+     * never see each other's documents; without a tenant the default one is searched.
+     */
+    public static Filter searchFilter(String tenant, String collection) {
+        return scopeFilter(tenant == null || tenant.isBlank() ? SimpleTextSplitter.DEFAULT_SCOPE : tenant, collection);
+    }
+
+    /**
+     * Build a filter restricting a search to a tenant and optionally one of its collections
+     *
+     * @return the filter, or null when no tenant is given
+     */
+    public static Filter scopeFilter(String tenant, String collection) {
+        if (tenant == null || tenant.isBlank()) {
+            return null;
+        }
+
+        Filter filter = MetadataFilterBuilder.metadataKey(SimpleTextSplitter.TENANT_KEY).isEqualTo(tenant);
+        if (collection != null && !collection.isBlank()) {
+            filter = filter.and(MetadataFilterBuilder.metadataKey(SimpleTextSplitter.COLLECTION_KEY).isEqualTo(collection));
+        }
+        return filter;
+    }
+
     /**
      * Reset the vector store index by removing all entries
      * @return
      */
     public boolean resetIndex() {
+        return resetIndex(null, null);
+    }
+
+    /**
+     * Reset the entries of a tenant, or of one of its collections, or the whole index when no tenant is given
+     */
+    public boolean resetIndex(String tenant, String collection) {
+        if ((tenant == null || tenant.isBlank()) && collection != null && !collection.isBlank()) {
+            throw new IllegalArgumentException("A collection can only be reset together with its tenant");
+        }
+
         try {
-            embeddingStore.removeAll();
+            Filter filter = scopeFilter(tenant, collection);
+            if (filter == null) {
+                embeddingStore.removeAll();
+                deduplicationService.clear();
+            } else {
+                embeddingStore.removeAll(filter);
+                deduplicationService.forgetScope(tenant, collection == null || collection.isBlank() ? null : collection);
+            }
             System.out.println("Successfully reset index");
             return true;
         } catch (Exception e) {
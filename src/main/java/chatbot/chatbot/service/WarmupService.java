@@ -0,0 +1,229 @@
+package chatbot.chatbot.service;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import chatbot.chatbot.handler.StreamChatHandler;
+import dev.langchain4j.model.embedding.DimensionAwareEmbeddingModel;
+import jakarta.annotation.PreDestroy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+/**
+ * Warms up the chat pipeline after startup: loads the embedding and chat models,
+ * opens the store connections and runs synthetic queries through search and prompting.
+ * The instance reports ready (see WarmupHealthIndicator) only once this has succeeded.
+ */
+@Service
+public class WarmupService {
+
+    public enum State { PENDING, WARMING_UP, READY, FAILED }
+
+    private static final List<String> SYNTHETIC_QUERIES = List.of(
+        "What is this document about?",
+        "Summarize the main points of the documentation.",
+        "Who is responsible for this process and what are the steps?"
+    );
+
+    // One token is enough to load the model and process the prompt prefix
+    private static final int CHAT_OUTPUT_TOKENS = 1;
+
+    private final AiService aiService;
+    private final VectorStoreService vectorStoreService;
+    private final DimensionAwareEmbeddingModel embeddingModel;
+    private final DataSource dataSource;
+
+    @Value("${app.warmup.enabled}")
+    private boolean enabled;
+
+    @Value("${app.warmup.queries}")
+    private int queries;
+
+    @Value("${app.warmup.timeout-seconds}")
+    private long timeoutSeconds;
+
+    @Value("${app.warmup.retry-delay-ms}")
+    private long retryDelayMs;
+
+    @Value("${app.vectorstore.max-results}")
+    private int maxResults;
+
+    private volatile State state = State.PENDING;
+    private volatile String error;
+    private volatile Instant completedAt;
+    private volatile int attempts;
+    private final Map<String, Double> stepMs = new LinkedHashMap<>();
+
+    private ExecutorService executor;
+
+    public WarmupService(AiService aiService, VectorStoreService vectorStoreService,
+            DimensionAwareEmbeddingModel embeddingModel, DataSource vectorDataSource) {
+        this.aiService = aiService;
+        this.vectorStoreService = vectorStoreService;
+        this.embeddingModel = embeddingModel;
+        this.dataSource = vectorDataSource;
+    }
+
+    /**
+     * Start warming up in the background, so startup itself is not delayed
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            state = State.READY;
+            return;
+        }
+
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "warmup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::run);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Retry until the warm-up succeeds, e.g. while Ollama or the database is still starting
+     */
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            attempts++;
+            state = State.WARMING_UP;
+            try {
+                warmUp();
+                error = null;
+                completedAt = Instant.now();
+                state = State.READY;
+                System.out.println("Warm-up completed: " + getStatus().get("stepMs"));
+                return;
+            } catch (Exception e) {
+                error = e.getMessage();
+                state = State.FAILED;
+                System.err.println("Warm-up failed (attempt " + attempts + "): " + e.getMessage());
+            }
+
+            try {
+                Thread.sleep(retryDelayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void warmUp() throws Exception {
+        synchronized (stepMs) {
+            stepMs.clear();
+        }
+
+        step("embeddingModel", () -> embeddingModel.embed(SYNTHETIC_QUERIES.get(0)));
+
+        step("vectorStore", () -> {
+            openConnections();
+            if (!vectorStoreService.testConnection()) {
+                throw new IllegalStateException("Vector store connection test failed");
+            }
+        });
+
+        List<String> contexts = new ArrayList<>();
+        step("search", () -> {
+            for (int i = 0; i < queries; i++) {
+                contexts.clear();
+                // searchSegments, unlike search, throws on errors so a failing search fails the step
+                vectorStoreService.searchSegments(SYNTHETIC_QUERIES.get(i % SYNTHETIC_QUERIES.size()), maxResults,
+                        VectorStoreService.searchFilter(null, null))
+                    .forEach(segment -> contexts.add(segment.text()));
+            }
+        });
+
+        // Goes through the same prompt template and stream handler as a real chat
+        step("chatModel", () -> Flux.create((FluxSink<String> sink) ->
+                aiService.warmUp(SYNTHETIC_QUERIES.get(0), contexts, CHAT_OUTPUT_TOKENS, new StreamChatHandler(sink)))
+            .blockLast(Duration.ofSeconds(timeoutSeconds)));
+    }
+
+    /**
+     * Open the pool's minimum number of connections at once, so none is created on a user request
+     */
+    private void openConnections() throws SQLException {
+        int count = dataSource instanceof HikariDataSource pool ? Math.max(1, pool.getMinimumIdle()) : 1;
+        List<Connection> connections = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                Connection connection = dataSource.getConnection();
+                connections.add(connection);
+                if (!connection.isValid((int) timeoutSeconds)) {
+                    throw new SQLException("Store connection is not valid");
+                }
+            }
+        } finally {
+            for (Connection connection : connections) {
+                connection.close();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Step {
+        void run() throws Exception;
+    }
+
+    private void step(String name, Step step) throws Exception {
+        long start = System.nanoTime();
+        try {
+            step.run();
+        } catch (Exception e) {
+            throw new Exception(name + ": " + e.getMessage(), e);
+        }
+        synchronized (stepMs) {
+            stepMs.put(name, (System.nanoTime() - start) / 1_000_000.0);
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Report the warm-up state, attempts and the duration of each completed step
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("state", state);
+        status.put("enabled", enabled);
+        status.put("attempts", attempts);
+        synchronized (stepMs) {
+            status.put("stepMs", new LinkedHashMap<>(stepMs));
+        }
+        if (completedAt != null) {
+            status.put("completedAt", completedAt.toString());
+        }
+        if (error != null) {
+            status.put("error", error);
+        }
+        return status;
+    }
+}
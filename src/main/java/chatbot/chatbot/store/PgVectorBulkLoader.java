@@ -0,0 +1,142 @@
+package chatbot.chatbot.store;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+
+import javax.sql.DataSource;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+
+/**
+ * Bulk loads embeddings into the pgvector table using PostgreSQL binary COPY.
+ * Rows are streamed straight to the server instead of being sent as one INSERT each.
+ */
+@Component
+public class PgVectorBulkLoader {
+
+    // Binary COPY header: signature, flags field and header extension length
+    private static final byte[] COPY_SIGNATURE = "PGCOPY\n\377\r\n\0".getBytes(StandardCharsets.ISO_8859_1);
+
+    // Version byte that prefixes the jsonb binary representation
+    private static final int JSONB_VERSION = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final DataSource dataSource;
+
+    @Value("${app.database.table}")
+    private String tableName;
+
+    public PgVectorBulkLoader(DataSource vectorDataSource) {
+        this.dataSource = vectorDataSource;
+    }
+
+    /**
+     * Copy a batch of embeddings and their segments into the store table.
+     *
+     * @param embeddings the embeddings to store
+     * @param segments the text segments matching the embeddings by position
+     * @return the number of rows copied
+     */
+    public long copy(List<Embedding> embeddings, List<TextSegment> segments) throws SQLException, IOException {
+        if (embeddings.size() != segments.size()) {
+            throw new IllegalArgumentException("Embeddings and segments must have the same size");
+        }
+
+        String sql = "COPY " + tableName + " (embedding_id, embedding, text, metadata) FROM STDIN (FORMAT binary)";
+
+        try (Connection connection = dataSource.getConnection()) {
+            boolean jsonb = isJsonbMetadata(connection);
+            PGCopyOutputStream copyStream = new PGCopyOutputStream(connection.unwrap(PGConnection.class), sql, BUFFER_SIZE);
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(copyStream, BUFFER_SIZE));
+            try {
+                out.write(COPY_SIGNATURE);
+                out.writeInt(0);
+                out.writeInt(0);
+
+                for (int i = 0; i < embeddings.size(); i++) {
+                    writeRow(out, embeddings.get(i), segments.get(i), jsonb);
+                }
+
+                // File trailer
+                out.writeShort(-1);
+                out.flush();
+            } catch (IOException | RuntimeException e) {
+                // Abort so a partially written batch is never committed
+                if (copyStream.isActive()) {
+                    copyStream.cancelCopy();
+                }
+                throw e;
+            }
+
+            // Closing the stream ends the COPY and commits the batch
+            out.close();
+
+            return embeddings.size();
+        }
+    }
+
+    private static void writeRow(DataOutputStream out, Embedding embedding, TextSegment segment, boolean jsonb) throws IOException {
+        out.writeShort(4);
+
+        // embedding_id: uuid as two 64-bit halves
+        UUID id = UUID.randomUUID();
+        out.writeInt(16);
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+
+        // embedding: pgvector binary format (dimension, unused, float4 values)
+        float[] vector = embedding.vector();
+        out.writeInt(4 + 4 * vector.length);
+        out.writeShort(vector.length);
+        out.writeShort(0);
+        for (float value : vector) {
+            out.writeFloat(value);
+        }
+
+        // text
+        byte[] text = segment.text().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(text.length);
+        out.write(text);
+
+        // metadata: json text, prefixed by a version byte for jsonb
+        byte[] metadata = objectMapper.writeValueAsBytes(segment.metadata().toMap());
+        if (jsonb) {
+            out.writeInt(metadata.length + 1);
+            out.writeByte(JSONB_VERSION);
+        } else {
+            out.writeInt(metadata.length);
+        }
+        out.write(metadata);
+    }
+
+    private boolean isJsonbMetadata(Connection connection) throws SQLException {
+        String sql = "SELECT format_type(atttypid, atttypmod) FROM pg_attribute WHERE attrelid = ?::regclass AND attname = 'metadata'";
+
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, tableName);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() && "jsonb".equals(resultSet.getString(1));
+            }
+        }
+    }
+}
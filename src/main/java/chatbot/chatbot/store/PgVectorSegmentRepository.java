@@ -0,0 +1,229 @@
+package chatbot.chatbot.store;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import chatbot.chatbot.textsplitter.SimpleTextSplitter;
+
+/**
+ * Queries on the pgvector table that the LangChain4j EmbeddingStore API does not offer,
+ * such as looking up documents by a source path prefix, and the table recording which
+ * documents had segments skipped as near-duplicates of another document.
+ */
+@Component
+public class PgVectorSegmentRepository {
+
+    /**
+     * Deduplication data of a stored segment. The text is only loaded for rows stored
+     * without a SimHash fingerprint.
+     */
+    public record StoredSegment(String source, String tenant, String collection, Long simHash, String text) {}
+
+    /**
+     * A document (source) with segments skipped because they duplicate segments of another one (duplicateOf)
+     */
+    public record Duplicate(String source, String duplicateOf, String tenant, String collection) {}
+
+    // Metadata key holding the SimHash fingerprint of a stored segment
+    public static final String SIMHASH_KEY = "simhash";
+
+    // Metadata key holding the id of the ingestion that stored a segment, so a new version
+    // of a document can be stored before the segments of the previous one are removed
+    public static final String INGEST_ID_KEY = "ingest_id";
+
+    private static final int FETCH_SIZE = 1000;
+
+    private final DataSource dataSource;
+
+    @Value("${app.database.table}")
+    private String tableName;
+
+    public PgVectorSegmentRepository(DataSource vectorDataSource) {
+        this.dataSource = vectorDataSource;
+    }
+
+    /**
+     * Find the sources of the stored segments located under a directory
+     *
+     * @param directory the directory, as used in the "source" metadata
+     * @return the distinct sources below the directory
+     */
+    public List<String> findSourcesUnder(String directory) throws SQLException {
+        String prefix = directory.endsWith("/") || directory.endsWith("\\") ? directory : directory + File.separator;
+        String sql = "SELECT DISTINCT metadata->>'source' FROM " + tableName + " WHERE metadata->>'source' LIKE ? ESCAPE '\\'";
+
+        List<String> sources = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, escapeLike(prefix) + "%");
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    sources.add(resultSet.getString(1));
+                }
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Add the default tenant and collection to segments stored before documents were scoped,
+     * so tenant-filtered searches and deduplication see them the same way
+     *
+     * @return the number of segments updated
+     */
+    public int backfillScope() throws SQLException {
+        String sql = String.format("UPDATE %s SET metadata = metadata || jsonb_build_object("
+            + "'%s', coalesce(metadata->>'%s', ?), '%s', coalesce(metadata->>'%s', ?)) "
+            + "WHERE metadata->>'%s' IS NULL OR metadata->>'%s' IS NULL",
+            tableName, SimpleTextSplitter.TENANT_KEY, SimpleTextSplitter.TENANT_KEY,
+            SimpleTextSplitter.COLLECTION_KEY, SimpleTextSplitter.COLLECTION_KEY,
+            SimpleTextSplitter.TENANT_KEY, SimpleTextSplitter.COLLECTION_KEY);
+
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, SimpleTextSplitter.DEFAULT_SCOPE);
+            statement.setString(2, SimpleTextSplitter.DEFAULT_SCOPE);
+            return statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Stream the deduplication data of every stored segment
+     */
+    public void forEachSegment(Consumer<StoredSegment> consumer) throws SQLException {
+        String sql = String.format("SELECT metadata->>'source', metadata->>'%s', metadata->>'%s', metadata->>'%s', "
+            + "CASE WHEN metadata->>'%s' IS NULL THEN text END FROM %s",
+            SimpleTextSplitter.TENANT_KEY, SimpleTextSplitter.COLLECTION_KEY, SIMHASH_KEY, SIMHASH_KEY, tableName);
+
+        try (Connection connection = dataSource.getConnection()) {
+            // A cursor is only used inside a transaction, otherwise the whole table is fetched at once
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.setFetchSize(FETCH_SIZE);
+                try (ResultSet resultSet = statement.executeQuery(sql)) {
+                    while (resultSet.next()) {
+                        String simHash = resultSet.getString(4);
+                        consumer.accept(new StoredSegment(resultSet.getString(1), resultSet.getString(2),
+                            resultSet.getString(3), simHash == null ? null : Long.valueOf(simHash), resultSet.getString(5)));
+                    }
+                }
+            } finally {
+                connection.commit();
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    public void createDuplicatesTable() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + duplicatesTable() + " ("
+                + "source TEXT NOT NULL, duplicate_of TEXT NOT NULL, tenant TEXT NOT NULL, collection TEXT NOT NULL, "
+                + "PRIMARY KEY (source, duplicate_of))");
+            statement.executeUpdate("CREATE INDEX IF NOT EXISTS " + duplicatesTable() + "_duplicate_of_idx ON "
+                + duplicatesTable() + " (duplicate_of)");
+        }
+    }
+
+    public List<Duplicate> findDuplicates() throws SQLException {
+        List<Duplicate> duplicates = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(
+                 "SELECT source, duplicate_of, tenant, collection FROM " + duplicatesTable())) {
+            while (resultSet.next()) {
+                duplicates.add(new Duplicate(resultSet.getString(1), resultSet.getString(2),
+                    resultSet.getString(3), resultSet.getString(4)));
+            }
+        }
+        return duplicates;
+    }
+
+    public void saveDuplicates(Collection<Duplicate> duplicates) throws SQLException {
+        if (duplicates.isEmpty()) {
+            return;
+        }
+        String sql = "INSERT INTO " + duplicatesTable() + " (source, duplicate_of, tenant, collection) "
+            + "VALUES (?, ?, ?, ?) ON CONFLICT DO NOTHING";
+
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (Duplicate duplicate : duplicates) {
+                statement.setString(1, duplicate.source());
+                statement.setString(2, duplicate.duplicateOf());
+                statement.setString(3, duplicate.tenant());
+                statement.setString(4, duplicate.collection());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * Delete the links of a document, both as the skipped and as the kept side
+     */
+    public void deleteDuplicates(String source) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                 "DELETE FROM " + duplicatesTable() + " WHERE source = ? OR duplicate_of = ?")) {
+            statement.setString(1, source);
+            statement.setString(2, source);
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Delete the links recorded for the skipped segments of a document
+     */
+    public void deleteDuplicatesFrom(String source) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                 "DELETE FROM " + duplicatesTable() + " WHERE source = ?")) {
+            statement.setString(1, source);
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Delete the links of a tenant, or of one of its collections, or all links when the tenant is null
+     */
+    public void deleteDuplicates(String tenant, String collection) throws SQLException {
+        String sql = "DELETE FROM " + duplicatesTable();
+        if (tenant != null) {
+            sql += collection != null ? " WHERE tenant = ? AND collection = ?" : " WHERE tenant = ?";
+        }
+
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            if (tenant != null) {
+                statement.setString(1, tenant);
+                if (collection != null) {
+                    statement.setString(2, collection);
+                }
+            }
+            statement.executeUpdate();
+        }
+    }
+
+    private String duplicatesTable() {
+        return tableName + "_duplicates";
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
@@ -1,32 +1,99 @@
 package chatbot.chatbot.textsplitter;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
 
+import dev.langchain4j.data.document.Metadata;
 import dev.langchain4j.data.segment.TextSegment;
 
 public final class SimpleTextSplitter {
+
+    // Metadata keys used to scope segments to a team and a document collection
+    public static final String TENANT_KEY = "tenant";
+    public static final String COLLECTION_KEY = "collection";
+
+    public static final String DEFAULT_SCOPE = "default";
+
+    /**
+     * Receives segments as they are produced by splitStream
+     */
+    @FunctionalInterface
+    public interface SegmentConsumer {
+        void accept(TextSegment segment) throws IOException;
+    }
+
+    private static final int CHUNK_SIZE = 500;
+    private static final int OVERLAP = 100;
+
     /**
      * Simple text splitting into segments
      */
     public static List<TextSegment> splitTextIntoSegments(String text, String documentName) {
+        return splitTextIntoSegments(text, documentName, DEFAULT_SCOPE, DEFAULT_SCOPE);
+    }
+
+    /**
+     * Simple text splitting into segments tagged with the tenant and collection they belong to
+     */
+    public static List<TextSegment> splitTextIntoSegments(String text, String documentName, String tenant, String collection) {
         List<TextSegment> segments = new ArrayList<>();
-        int chunkSize = 500;
-        int overlap = 100;
 
-        for (int i = 0; i < text.length(); i += chunkSize - overlap) {
-            int end = Math.min(i + chunkSize, text.length());
+        for (int i = 0; i < text.length(); i += CHUNK_SIZE - OVERLAP) {
+            int end = Math.min(i + CHUNK_SIZE, text.length());
             String chunk = text.substring(i, end);
             
-            // Create metadata with source information
-            var metadata = new dev.langchain4j.data.document.Metadata();
-            metadata.put("source", documentName);
-            metadata.put("chunk_index", String.valueOf(segments.size()));
-            segments.add(TextSegment.from(chunk, metadata));
+            segments.add(TextSegment.from(chunk, createMetadata(documentName, segments.size(), tenant, collection)));
 
             if (end >= text.length()) break;
         }
         
         return segments;
     }
+
+    /**
+     * Split text read from a stream, emitting each segment as soon as it is complete.
+     * Produces the same segments as splitTextIntoSegments without holding the whole text.
+     *
+     * @param reader the text source
+     * @param consumer receives each segment in order
+     * @return the number of segments emitted
+     */
+    public static int splitStream(Reader reader, String documentName, String tenant, String collection,
+            SegmentConsumer consumer) throws IOException {
+        StringBuilder window = new StringBuilder(CHUNK_SIZE * 2);
+        char[] buffer = new char[8192];
+        int chunkIndex = 0;
+        int read;
+
+        while ((read = reader.read(buffer)) != -1) {
+            window.append(buffer, 0, read);
+
+            // A full chunk is only final once text follows it, otherwise it may be the last one
+            while (window.length() > CHUNK_SIZE) {
+                String chunk = window.substring(0, CHUNK_SIZE);
+                consumer.accept(TextSegment.from(chunk, createMetadata(documentName, chunkIndex++, tenant, collection)));
+                window.delete(0, CHUNK_SIZE - OVERLAP);
+            }
+        }
+
+        if (window.length() > 0) {
+            consumer.accept(TextSegment.from(window.toString(), createMetadata(documentName, chunkIndex++, tenant, collection)));
+        }
+
+        return chunkIndex;
+    }
+
+    /**
+     * Create metadata with source information
+     */
+    private static Metadata createMetadata(String documentName, int chunkIndex, String tenant, String collection) {
+        var metadata = new Metadata();
+        metadata.put("source", documentName);
+        metadata.put("chunk_index", String.valueOf(chunkIndex));
+        metadata.put(TENANT_KEY, tenant);
+        metadata.put(COLLECTION_KEY, collection);
+        return metadata;
+    }
 }
@@ -1,6 +1,9 @@
 package chatbot.chatbot.utils;
 
 import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
@@ -8,9 +11,14 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 import org.springframework.web.multipart.MultipartFile;
 
+import chatbot.chatbot.textsplitter.SimpleTextSplitter;
+
 import java.io.IOException;
 import java.nio.file.Files;
 
@@ -18,8 +26,54 @@ public final class FileUtils {
 
     private static final String[] ALLOWED_EXTENSIONS = { "md", "txt" };
 
-    private static Path getRawDataDirectory() {
-        return Path.of("raw_data");
+    private static final String UPLOAD_SUFFIX = ".upload";
+
+    private static final Set<PosixFilePermission> UPLOAD_PERMISSIONS = PosixFilePermissions.fromString("rw-r--r--");
+
+    // Tenant and collection names become directory names, so keep them to a safe character set
+    private static final Pattern SCOPE_NAME_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    // Configured from app.vectorstore.raw-data-dir on startup
+    private static volatile Path rawDataDirectory = Path.of("raw_data");
+
+    public static Path getRawDataDirectory() {
+        return rawDataDirectory;
+    }
+
+    public static void setRawDataDirectory(String directory) {
+        rawDataDirectory = Path.of(directory).normalize();
+    }
+
+    /**
+     * Get the directory holding the files of a tenant and collection.
+     * Files uploaded without a tenant are kept at the root of raw_data.
+     */
+    private static Path getScopeDirectory(String tenant, String collection) {
+        if (tenant == null || tenant.isBlank()) {
+            return getRawDataDirectory();
+        }
+        String collectionName = (collection == null || collection.isBlank()) ? SimpleTextSplitter.DEFAULT_SCOPE : collection;
+        return getRawDataDirectory().resolve(tenant).resolve(collectionName);
+    }
+
+    public static boolean isValidScopeName(String name) {
+        return name == null || name.isBlank() || SCOPE_NAME_PATTERN.matcher(name).matches();
+    }
+
+    /**
+     * Get the tenant of a document from its location: raw_data/{tenant}/{collection}/{file}
+     */
+    public static String getTenant(Path filePath) {
+        Path relative = getRawDataDirectory().relativize(filePath.normalize());
+        return relative.getNameCount() >= 3 ? relative.getName(0).toString() : SimpleTextSplitter.DEFAULT_SCOPE;
+    }
+
+    /**
+     * Get the collection of a document from its location: raw_data/{tenant}/{collection}/{file}
+     */
+    public static String getCollection(Path filePath) {
+        Path relative = getRawDataDirectory().relativize(filePath.normalize());
+        return relative.getNameCount() >= 3 ? relative.getName(1).toString() : SimpleTextSplitter.DEFAULT_SCOPE;
     }
 
     public static boolean isRawDataDirectoryExists() {
@@ -57,14 +111,12 @@ public final class FileUtils {
     }
 
     public static boolean saveMultipartFile(MultipartFile file, List<String> errors) {
-        try {
-            createRawDataDirectoryIfNotExists();
-            String originalFileName = file.getOriginalFilename();
-            if (originalFileName == null) {
-                throw new IOException("File has no name");
-            }
+        return saveMultipartFile(file, null, null, errors);
+    }
 
-            Path targetLocation = getRawDataDirectory().resolve(originalFileName);
+    public static boolean saveMultipartFile(MultipartFile file, String tenant, String collection, List<String> errors) {
+        try {
+            Path targetLocation = resolveUploadTarget(file, tenant, collection);
             Files.copy(file.getInputStream(), targetLocation, StandardCopyOption.REPLACE_EXISTING);
         } catch (IOException e) {
             errors.add("Failed to upload files: " + e.getMessage());
@@ -74,6 +126,69 @@ public final class FileUtils {
         return true;
     }
 
+    /**
+     * Create the temporary file an upload is streamed to, next to its target so it can be moved
+     * atomically. The ".upload" extension is not an allowed type, so neither the watcher nor the
+     * file list picks it up.
+     */
+    public static Path createUploadFile(Path target) throws IOException {
+        Path temp = Files.createTempFile(target.getParent(), "." + target.getFileName() + ".", UPLOAD_SUFFIX);
+
+        // createTempFile is owner-only (0600): keep the permissions of the replaced file,
+        // or give new raw copies the usual rw-r--r--
+        if (Files.getFileStore(temp).supportsFileAttributeView(PosixFileAttributeView.class)) {
+            Files.setPosixFilePermissions(temp,
+                Files.exists(target) ? Files.getPosixFilePermissions(target) : UPLOAD_PERMISSIONS);
+        }
+        return temp;
+    }
+
+    /**
+     * Delete the temporary upload files left in raw_data by a crash during an upload
+     */
+    public static void deleteStaleUploads() {
+        if (!isRawDataDirectoryExists()) {
+            return;
+        }
+
+        try (Stream<Path> files = Files.walk(getRawDataDirectory())) {
+            files
+                .filter(Files::isRegularFile)
+                .filter(file -> file.getFileName().toString().endsWith(UPLOAD_SUFFIX))
+                .forEach(file -> {
+                    try {
+                        Files.delete(file);
+                        System.out.println("Deleted stale upload: " + getRelativeName(file));
+                    } catch (IOException e) {
+                        System.err.println("Failed to delete stale upload " + file + ": " + e.getMessage());
+                    }
+                });
+        } catch (IOException e) {
+            System.err.println("Failed to clean up stale uploads: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get the location an uploaded file is stored at, creating its directory if needed
+     */
+    public static Path resolveUploadTarget(MultipartFile file, String tenant, String collection) throws IOException {
+        Path scopeDir = getScopeDirectory(tenant, collection);
+        Files.createDirectories(scopeDir);
+        String originalFileName = file.getOriginalFilename();
+        if (originalFileName == null) {
+            throw new IOException("File has no name");
+        }
+
+        return scopeDir.resolve(Path.of(originalFileName).getFileName());
+    }
+
+    /**
+     * Get the name of a file relative to raw_data, as listed by getFileInfos
+     */
+    public static String getRelativeName(Path filePath) {
+        return getRawDataDirectory().relativize(filePath.normalize()).toString().replace('\\', '/');
+    }
+
     public static List<Map<String, Object>> getFileInfos() {
         List<Map<String, Object>> result = new ArrayList<>();
 
@@ -83,16 +198,19 @@ public final class FileUtils {
             return result;
         }
 
-        try {
-            Files.list(rawDataDir)
+        try (Stream<Path> files = Files.walk(rawDataDir)) {
+            files
                 .filter(Files::isRegularFile)
+                .filter(FileUtils::isAllowedFileType)
                 .forEach(file -> {
                     try {
                         Map<String, Object> fileInfo = new HashMap<>();
-                        fileInfo.put("name", file.getFileName().toString());
+                        fileInfo.put("name", getRelativeName(file));
                         fileInfo.put("size", Files.size(file));
                         fileInfo.put("lastModified", Files.getLastModifiedTime(file).toString());
                         fileInfo.put("type", getFileExtension(file.getFileName().toString()));
+                        fileInfo.put(SimpleTextSplitter.TENANT_KEY, getTenant(file));
+                        fileInfo.put(SimpleTextSplitter.COLLECTION_KEY, getCollection(file));
                         result.add(fileInfo);
                     } catch (IOException e) {
                         // Skip files that can't be read
@@ -136,7 +254,11 @@ public final class FileUtils {
     }
 
     public static boolean deleteFile(String fileName, List<String> errors) {
-        Path filePath = getRawDataDirectory().resolve(fileName);
+        Path filePath = getRawDataDirectory().resolve(fileName).normalize();
+        if (!filePath.startsWith(getRawDataDirectory())) {
+            errors.add("Invalid file name: " + fileName);
+            return false;
+        }
         try {
             if (Files.exists(filePath)) {
                 Files.delete(filePath);
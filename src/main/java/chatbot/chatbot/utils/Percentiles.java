@@ -0,0 +1,33 @@
+package chatbot.chatbot.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class Percentiles {
+
+    /**
+     * Summarize latencies with the nearest-rank percentiles
+     *
+     * @param values the measured values, in any order
+     * @param percentiles the percentiles to report, e.g. 50, 95, 99
+     * @return a map such as {"p50": 1.2, "p95": 3.4, "max": 5.6}, empty when there are no values
+     */
+    public static Map<String, Double> summarize(List<Double> values, int... percentiles) {
+        Map<String, Double> result = new LinkedHashMap<>();
+        if (values.isEmpty()) {
+            return result;
+        }
+
+        List<Double> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        for (int percentile : percentiles) {
+            int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+            result.put("p" + percentile, sorted.get(Math.max(rank, 1) - 1));
+        }
+        result.put("max", sorted.get(sorted.size() - 1));
+        return result;
+    }
+}
@@ -0,0 +1,73 @@
+package chatbot.chatbot.evaluation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.DimensionAwareEmbeddingModel;
+import dev.langchain4j.model.output.Response;
+
+/**
+ * Deterministic local stand-in for the Ollama embedding model, used by the evaluation harness.
+ * Words and word bigrams are hashed into a fixed number of signed buckets and the vector is
+ * L2-normalized, so texts sharing vocabulary get a high cosine similarity.
+ */
+public class HashingEmbeddingModel extends DimensionAwareEmbeddingModel {
+
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    public HashingEmbeddingModel(int dimension) {
+        this.dimension = dimension;
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+        List<Embedding> embeddings = new ArrayList<>(segments.size());
+        for (TextSegment segment : segments) {
+            embeddings.add(Embedding.from(embed(segment.text(), dimension)));
+        }
+        return Response.from(embeddings);
+    }
+
+    @Override
+    protected Integer knownDimension() {
+        return dimension;
+    }
+
+    private static float[] embed(String text, int dimension) {
+        float[] vector = new float[dimension];
+        String previous = null;
+
+        for (String token : TOKEN_SEPARATOR.split(text.toLowerCase(Locale.ROOT))) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            addFeature(vector, token, 1.0f);
+            if (previous != null) {
+                addFeature(vector, previous + " " + token, 0.5f);
+            }
+            previous = token;
+        }
+
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        if (norm > 0) {
+            float scale = (float) (1.0 / Math.sqrt(norm));
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] *= scale;
+            }
+        }
+        return vector;
+    }
+
+    private static void addFeature(float[] vector, String feature, float weight) {
+        int hash = feature.hashCode() * 0x9E3779B9;
+        int bucket = Math.floorMod(hash, vector.length);
+        vector[bucket] += (hash >>> 31) == 0 ? weight : -weight;
+    }
+}
@@ -0,0 +1,246 @@
+package chatbot.chatbot.evaluation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.io.support.ResourcePropertySource;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import chatbot.chatbot.service.DeduplicationService;
+import chatbot.chatbot.service.IngestionStatusService;
+import chatbot.chatbot.service.VectorStoreService;
+import chatbot.chatbot.store.PgVectorBulkLoader;
+import chatbot.chatbot.store.PgVectorSegmentRepository;
+import chatbot.chatbot.textsplitter.SimpleTextSplitter;
+import chatbot.chatbot.utils.FileUtils;
+import chatbot.chatbot.utils.Percentiles;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.DimensionAwareEmbeddingModel;
+import dev.langchain4j.store.embedding.filter.Filter;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Offline retrieval quality and latency harness.
+ *
+ * Indexes a directory of documents through VectorStoreService with a deterministic
+ * hashing embedding model and an in-memory store, runs every question of a dataset
+ * through VectorStoreService.searchSegments with the tenant filter the chat applies,
+ * and prints a JSON report with recall@k, MRR, latency percentiles and throughput.
+ * No Ollama or PostgreSQL is needed.
+ *
+ * recall@k counts the expected sources among the sources of the first k segments, and the
+ * reciprocal rank is that of the first segment from an expected source.
+ *
+ * Dataset format (JSON Lines): {"question": "...", "expectedSources": ["guide.md"]}
+ * where sources are file names relative to the documents directory.
+ *
+ * Arguments (all optional):
+ *   --dataset=evaluation/sample/dataset.jsonl
+ *   --documents=evaluation/sample/docs
+ *   --output=target/retrieval-report.json
+ *   --k=1,3,5
+ *   --min-score=0.5          overrides app.vectorstore.min-score, which is tuned for the Ollama model
+ *   --dimension=384          embedding dimension of the stand-in model
+ *   --repeat=5               passes over the dataset for the latency measurements
+ *   --tenant=, --collection= scope searched, as in /api/stream (default: the default tenant)
+ */
+public class RetrievalEvaluation {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    // Scores of the hashing model are lower than those of the Ollama embedding model
+    private static final String DEFAULT_MIN_SCORE = "0.5";
+
+    // One evaluated question: its expected sources and the source of each retrieved segment, in rank order
+    private record QuestionResult(Set<String> expected, List<String> retrieved) {}
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseArguments(args);
+        Path dataset = Path.of(options.getOrDefault("dataset", "evaluation/sample/dataset.jsonl"));
+        Path documents = Path.of(options.getOrDefault("documents", "evaluation/sample/docs"));
+        int[] ks = Arrays.stream(options.getOrDefault("k", "1,3,5").split(","))
+            .map(String::trim)
+            .mapToInt(Integer::parseInt)
+            .sorted()
+            .toArray();
+        int maxK = ks[ks.length - 1];
+        int dimension = Integer.parseInt(options.getOrDefault("dimension", "384"));
+        int repeat = Integer.parseInt(options.getOrDefault("repeat", "5"));
+
+        Map<String, Object> overrides = new HashMap<>();
+        overrides.put("app.vectorstore.ingest.use-copy", "false");
+        overrides.put("app.vectorstore.dedup.persist", "false");
+        overrides.put("app.vectorstore.min-score", options.getOrDefault("min-score", DEFAULT_MIN_SCORE));
+
+        FileUtils.setRawDataDirectory(documents.toString());
+
+        try (AnnotationConfigApplicationContext context = createContext(overrides, dimension)) {
+            VectorStoreService vectorStoreService = context.getBean(VectorStoreService.class);
+
+            long ingestStart = System.nanoTime();
+            if (!vectorStoreService.processDocuments()) {
+                throw new IllegalStateException("Failed to index documents from " + documents);
+            }
+            double ingestMs = (System.nanoTime() - ingestStart) / 1_000_000.0;
+
+            List<JsonNode> questions = readDataset(dataset);
+
+            // The tenant filter every chat search applies; documents at the root of the directory are in the default tenant
+            Filter filter = VectorStoreService.searchFilter(options.get("tenant"), options.get("collection"));
+
+            // The first pass gives the quality results, every pass is timed
+            List<QuestionResult> results = new ArrayList<>();
+            List<Double> latencies = new ArrayList<>();
+            long runStart = System.nanoTime();
+            for (int pass = 0; pass < repeat; pass++) {
+                for (JsonNode question : questions) {
+                    long start = System.nanoTime();
+                    List<TextSegment> segments = vectorStoreService.searchSegments(question.path("question").asText(), maxK, filter);
+                    latencies.add((System.nanoTime() - start) / 1_000_000.0);
+
+                    if (pass == 0) {
+                        results.add(new QuestionResult(expectedSources(question), segmentSources(segments)));
+                    }
+                }
+            }
+            double runSeconds = (System.nanoTime() - runStart) / 1_000_000_000.0;
+
+            Map<String, Object> config = new LinkedHashMap<>();
+            config.put("dataset", dataset.toString());
+            config.put("documents", documents.toString());
+            config.put("questions", questions.size());
+            config.put("maxResults", maxK);
+            config.put("tenant", options.getOrDefault("tenant", SimpleTextSplitter.DEFAULT_SCOPE));
+            config.put("collection", options.get("collection"));
+            config.put("minScore", context.getEnvironment().getProperty("app.vectorstore.min-score"));
+            config.put("embeddingModel", "hashing-" + dimension);
+            config.put("repeat", repeat);
+
+            Map<String, Object> ingestion = new LinkedHashMap<>();
+            ingestion.put("ms", ingestMs);
+            ingestion.put("dedup", context.getBean(DeduplicationService.class).getStats());
+
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("config", config);
+            report.put("ingestion", ingestion);
+            report.put("quality", qualityMetrics(results, ks));
+            report.put("latencyMs", Percentiles.summarize(latencies, 50, 95, 99));
+            report.put("throughputQps", runSeconds > 0 ? latencies.size() / runSeconds : 0);
+
+            String json = objectMapper.writeValueAsString(report);
+            if (options.containsKey("output")) {
+                Path output = Path.of(options.get("output"));
+                if (output.getParent() != null) {
+                    Files.createDirectories(output.getParent());
+                }
+                Files.writeString(output, json);
+            }
+            System.out.println(json);
+        }
+    }
+
+    /**
+     * Build a minimal context with the real ingestion and search services,
+     * backed by the hashing embedding model and an in-memory store
+     */
+    private static AnnotationConfigApplicationContext createContext(Map<String, Object> overrides, int dimension)
+            throws IOException {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("evaluation", overrides));
+        context.getEnvironment().getPropertySources().addLast(new ResourcePropertySource("classpath:application.properties"));
+
+        context.registerBean(DimensionAwareEmbeddingModel.class, () -> new HashingEmbeddingModel(dimension));
+        context.registerBean(InMemoryEmbeddingStore.class, InMemoryEmbeddingStore::new);
+        context.registerBean(MeterRegistry.class, SimpleMeterRegistry::new);
+        // Never used: COPY ingestion and dedup persistence are disabled for the in-memory store
+        context.registerBean(PgVectorBulkLoader.class, () -> new PgVectorBulkLoader(null));
+        context.registerBean(PgVectorSegmentRepository.class, () -> new PgVectorSegmentRepository(null));
+        context.register(IngestionStatusService.class, DeduplicationService.class, VectorStoreService.class);
+        context.refresh();
+        return context;
+    }
+
+    private static Map<String, Object> qualityMetrics(List<QuestionResult> results, int[] ks) {
+        Map<String, Object> quality = new LinkedHashMap<>();
+        if (results.isEmpty()) {
+            return quality;
+        }
+
+        for (int k : ks) {
+            double recallSum = 0;
+            double distinctSum = 0;
+            for (QuestionResult result : results) {
+                // The first k segments, not the first k distinct sources
+                Set<String> topK = new LinkedHashSet<>(result.retrieved().subList(0, Math.min(k, result.retrieved().size())));
+                long found = result.expected().stream().filter(topK::contains).count();
+                recallSum += result.expected().isEmpty() ? 1.0 : (double) found / result.expected().size();
+                distinctSum += topK.size();
+            }
+            quality.put("recall@" + k, recallSum / results.size());
+            quality.put("distinctSources@" + k, distinctSum / results.size());
+        }
+
+        double reciprocalRankSum = 0;
+        for (QuestionResult result : results) {
+            for (int rank = 0; rank < result.retrieved().size(); rank++) {
+                if (result.expected().contains(result.retrieved().get(rank))) {
+                    reciprocalRankSum += 1.0 / (rank + 1);
+                    break;
+                }
+            }
+        }
+        quality.put("mrr", reciprocalRankSum / results.size());
+        return quality;
+    }
+
+    private static List<String> segmentSources(List<TextSegment> segments) {
+        return segments.stream()
+            .map(segment -> FileUtils.getRelativeName(Path.of(segment.metadata().getString("source"))))
+            .toList();
+    }
+
+    private static Set<String> expectedSources(JsonNode question) {
+        Set<String> expected = new LinkedHashSet<>();
+        question.path("expectedSources").forEach(source -> expected.add(source.asText()));
+        if (question.hasNonNull("expectedSource")) {
+            expected.add(question.get("expectedSource").asText());
+        }
+        return expected;
+    }
+
+    private static List<JsonNode> readDataset(Path dataset) throws IOException {
+        List<JsonNode> questions = new ArrayList<>();
+        for (String line : Files.readAllLines(dataset)) {
+            if (!line.isBlank()) {
+                questions.add(objectMapper.readTree(line));
+            }
+        }
+        return questions;
+    }
+
+    private static Map<String, String> parseArguments(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.contains("=")) {
+                options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            }
+        }
+        return options;
+    }
+}
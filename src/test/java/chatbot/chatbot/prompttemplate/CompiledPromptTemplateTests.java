@@ -0,0 +1,54 @@
+package chatbot.chatbot.prompttemplate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class CompiledPromptTemplateTests {
+
+	@Test
+	void rendersLiteralsAndVariables() {
+		CompiledPromptTemplate template = CompiledPromptTemplate.compile("Context: {{context}}\nQuestion: {{ question }}?");
+		assertEquals("Context: docs\nQuestion: why?", template.render(Map.of("context", "docs", "question", "why")));
+	}
+
+	@Test
+	void placeholdersInsideValuesAreNotSubstituted() {
+		CompiledPromptTemplate template = CompiledPromptTemplate.compile("{{context}} | {{question}}");
+		assertEquals("docs | what is {{context}}",
+			template.render(Map.of("context", "docs", "question", "what is {{context}}")));
+	}
+
+	@Test
+	void iterableItemsAreSeparatedByABlankLine() {
+		CompiledPromptTemplate template = CompiledPromptTemplate.compile("[{{context}}]");
+		assertEquals("[first\n\nsecond\n\nthird]", template.render(Map.of("context", List.of("first", "second", "third"))));
+		assertEquals("[only]", template.render(Map.of("context", List.of("only"))));
+		assertEquals("[]", template.render(Map.of("context", List.of())));
+	}
+
+	@Test
+	void missingVariableIsRejected() {
+		CompiledPromptTemplate template = CompiledPromptTemplate.compile("{{context}} {{question}}");
+		assertThrows(IllegalArgumentException.class, () -> template.render(Map.of("context", "docs")));
+	}
+
+	@Test
+	void unclosedPlaceholderIsRejected() {
+		assertThrows(IllegalArgumentException.class, () -> CompiledPromptTemplate.compile("Question: {{question"));
+	}
+
+	@Test
+	void ragPromptMatchesStringReplacement() {
+		List<String> contexts = List.of("Vacation is 18 days.", "Carry-over is 5 days.");
+		String expected = RagPromptTemplate.RAG_USER_PROMPT_TEMPLATE
+			.replace("{{context}}", String.join("\n\n", contexts))
+			.replace("{{question}}", "How many days?");
+
+		assertEquals(expected, RagPromptTemplate.RAG_USER_PROMPT.render(Map.of("context", contexts, "question", "How many days?")));
+	}
+}
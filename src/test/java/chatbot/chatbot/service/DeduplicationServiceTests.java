@@ -0,0 +1,153 @@
+package chatbot.chatbot.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import chatbot.chatbot.store.PgVectorSegmentRepository;
+import chatbot.chatbot.textsplitter.SimpleTextSplitter;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class DeduplicationServiceTests {
+
+	private static final String TEXT = text(0, 80);
+
+	// TEXT with one word replaced, a few bits away from its fingerprint
+	private static final String NEAR_TEXT = TEXT.replace("word40 ", "changed ");
+
+	private DeduplicationService service;
+
+	@BeforeEach
+	void setUp() {
+		service = new DeduplicationService(new SimpleMeterRegistry(), new PgVectorSegmentRepository(null));
+		ReflectionTestUtils.setField(service, "enabled", true);
+		ReflectionTestUtils.setField(service, "maxDistance", 6);
+		ReflectionTestUtils.setField(service, "maxFingerprints", 1000);
+		ReflectionTestUtils.setField(service, "persist", false);
+	}
+
+	@Test
+	void nearIdenticalTextsCollide() {
+		assertEquals(1, service.filter(List.of(segment(TEXT, "a.md", "team"))).size());
+		assertEquals(0, service.filter(List.of(segment(NEAR_TEXT, "b.md", "team"))).size());
+		assertEquals(1L, service.getStats().get("segmentsSkipped"));
+	}
+
+	@Test
+	void differentTextsDoNotCollide() {
+		assertEquals(1, service.filter(List.of(segment(TEXT, "a.md", "team"))).size());
+		assertEquals(1, service.filter(List.of(segment(text(1000, 80), "b.md", "team"))).size());
+	}
+
+	@Test
+	void differentTenantsNeverCollide() {
+		assertEquals(1, service.filter(List.of(segment(TEXT, "a.md", "team"))).size());
+		assertEquals(1, service.filter(List.of(segment(TEXT, "b.md", "other"))).size());
+		assertEquals(1, service.filter(List.of(segment(TEXT, "c.md", "team", "other", null))).size());
+	}
+
+	@Test
+	void keptSegmentsGetTheirFingerprint() {
+		TextSegment segment = segment(TEXT, "a.md", "team");
+		service.filter(List.of(segment));
+		assertTrue(segment.metadata().containsKey(PgVectorSegmentRepository.SIMHASH_KEY));
+	}
+
+	@Test
+	void forgetSourceReturnsLinkedDocuments() {
+		service.filter(List.of(segment(TEXT, "a.md", "team")));
+		service.filter(List.of(segment(NEAR_TEXT, "b.md", "team")));
+
+		assertEquals(Set.of("b.md"), service.forgetSource("a.md"));
+		assertEquals(Set.of(), service.forgetSource("b.md"));
+
+		// a.md no longer suppresses its copy
+		assertEquals(1, service.filter(List.of(segment(NEAR_TEXT, "b.md", "team"))).size());
+	}
+
+	@Test
+	void copiesInsideOneDocumentAreNotLinked() {
+		service.filter(List.of(segment(TEXT, "a.md", "team"), segment(NEAR_TEXT, "a.md", "team")));
+		assertEquals(Set.of(), service.forgetSource("a.md"));
+		assertEquals(0, service.getStats().get("duplicateLinks"));
+	}
+
+	@Test
+	void replacedDocumentIsNotADuplicateOfItsPreviousVersion() {
+		service.filter(List.of(segment(TEXT, "a.md", "team")));
+		service.filter(List.of(segment(NEAR_TEXT, "b.md", "team")));
+
+		service.beginReplace("a.md", "v2");
+		assertEquals(1, service.filter(List.of(segment(TEXT, "a.md", "team", SimpleTextSplitter.DEFAULT_SCOPE, "v2"))).size());
+		assertEquals(Set.of("b.md"), service.completeReplace("a.md", "v2"));
+
+		// Only the new version's fingerprint is left
+		assertEquals(1, service.getStats().get("fingerprints"));
+	}
+
+	@Test
+	void abortedReplaceKeepsThePreviousVersion() {
+		service.filter(List.of(segment(TEXT, "a.md", "team")));
+
+		Set<PgVectorSegmentRepository.Duplicate> previous = service.beginReplace("a.md", "v2");
+		service.filter(List.of(segment(text(2000, 80), "a.md", "team", SimpleTextSplitter.DEFAULT_SCOPE, "v2")));
+		service.abortReplace("a.md", "v2", previous);
+
+		assertEquals(1, service.getStats().get("fingerprints"));
+		assertEquals(0, service.filter(List.of(segment(NEAR_TEXT, "b.md", "team"))).size());
+	}
+
+	@Test
+	void oldestFingerprintsAreEvicted() {
+		ReflectionTestUtils.setField(service, "maxFingerprints", 2);
+		service.filter(List.of(segment(text(0, 80), "a.md", "team")));
+		service.filter(List.of(segment(text(1000, 80), "b.md", "team")));
+		service.filter(List.of(segment(text(2000, 80), "c.md", "team")));
+
+		assertEquals(2, service.getStats().get("fingerprints"));
+		assertEquals(1, service.filter(List.of(segment(text(0, 80), "d.md", "team"))).size());
+		assertEquals(0, service.filter(List.of(segment(text(2000, 80), "e.md", "team"))).size());
+	}
+
+	@Test
+	void forgetScopeOnlyForgetsThatScope() {
+		service.filter(List.of(segment(TEXT, "a.md", "team")));
+		service.filter(List.of(segment(TEXT, "b.md", "other")));
+
+		service.forgetScope("team", null);
+
+		assertEquals(1, service.filter(List.of(segment(TEXT, "c.md", "team"))).size());
+		assertEquals(0, service.filter(List.of(segment(TEXT, "d.md", "other"))).size());
+	}
+
+	private static TextSegment segment(String text, String source, String tenant) {
+		return segment(text, source, tenant, SimpleTextSplitter.DEFAULT_SCOPE, null);
+	}
+
+	private static TextSegment segment(String text, String source, String tenant, String collection, String ingestId) {
+		Metadata metadata = new Metadata()
+			.put("source", source)
+			.put(SimpleTextSplitter.TENANT_KEY, tenant)
+			.put(SimpleTextSplitter.COLLECTION_KEY, collection);
+		if (ingestId != null) {
+			metadata.put(PgVectorSegmentRepository.INGEST_ID_KEY, ingestId);
+		}
+		return TextSegment.from(text, metadata);
+	}
+
+	private static String text(int firstWord, int words) {
+		StringBuilder text = new StringBuilder();
+		for (int word = firstWord; word < firstWord + words; word++) {
+			text.append("word").append(word).append(' ');
+		}
+		return text.toString();
+	}
+}
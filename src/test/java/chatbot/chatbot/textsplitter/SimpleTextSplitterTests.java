@@ -0,0 +1,88 @@
+package chatbot.chatbot.textsplitter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import dev.langchain4j.data.segment.TextSegment;
+
+class SimpleTextSplitterTests {
+
+	// Around and across the chunk size (500), the overlap (100) and the 8192 char read buffer
+	private static final int[] LENGTHS = { 0, 1, 100, 399, 400, 499, 500, 501, 899, 900, 901, 8191, 8192, 8193, 20000 };
+
+	// Readers returning at most this many chars per read, so chunks span read boundaries
+	private static final int[] READ_SIZES = { 1, 7, 100, 499, 500, 501, 8192, 10000 };
+
+	@Test
+	void splitStreamMatchesSplitTextIntoSegments() throws IOException {
+		for (int length : LENGTHS) {
+			String text = text(length);
+			List<TextSegment> expected = SimpleTextSplitter.splitTextIntoSegments(text, "doc.md", "team", "docs");
+
+			for (int readSize : READ_SIZES) {
+				List<TextSegment> actual = new ArrayList<>();
+				int count = SimpleTextSplitter.splitStream(new ChunkedReader(text, readSize), "doc.md", "team", "docs", actual::add);
+
+				String context = "length " + length + ", read size " + readSize;
+				assertEquals(expected.size(), count, context);
+				assertEquals(expected, actual, context);
+			}
+		}
+	}
+
+	@Test
+	void chunkBoundaries() {
+		assertEquals(List.of(500), chunkLengths(500));
+		assertEquals(List.of(500, 101), chunkLengths(501));
+		assertEquals(List.of(500, 500), chunkLengths(900));
+		assertEquals(List.of(500, 500, 101), chunkLengths(901));
+	}
+
+	private static List<Integer> chunkLengths(int length) {
+		return SimpleTextSplitter.splitTextIntoSegments(text(length), "doc.md").stream()
+			.map(segment -> segment.text().length())
+			.toList();
+	}
+
+	/**
+	 * Text without repeating patterns, so a misplaced chunk boundary changes the chunk text
+	 */
+	private static String text(int length) {
+		StringBuilder text = new StringBuilder(length + 16);
+		for (int word = 0; text.length() < length; word++) {
+			text.append('w').append(word).append(word % 13 == 0 ? '\n' : ' ');
+		}
+		return text.substring(0, length);
+	}
+
+	/**
+	 * A reader that never returns more than readSize chars per call
+	 */
+	private static class ChunkedReader extends Reader {
+
+		private final Reader delegate;
+		private final int readSize;
+
+		ChunkedReader(String text, int readSize) {
+			this.delegate = new StringReader(text);
+			this.readSize = readSize;
+		}
+
+		@Override
+		public int read(char[] buffer, int offset, int length) throws IOException {
+			return delegate.read(buffer, offset, Math.min(length, readSize));
+		}
+
+		@Override
+		public void close() throws IOException {
+			delegate.close();
+		}
+	}
+}
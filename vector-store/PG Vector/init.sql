@@ -9,6 +9,9 @@ CREATE TABLE IF NOT EXISTS test_index (
     metadata JSONB
 );
 
+-- The HNSW / IVFFlat index on "embedding" is created by the application on startup
+-- (see app.vectorstore.index.* in application.properties)
+
 -- Grant permissions to the admin user
 GRANT ALL PRIVILEGES ON ALL TABLES IN SCHEMA public TO admin;
 GRANT ALL PRIVILEGES ON ALL SEQUENCES IN SCHEMA public TO admin;